@@ -0,0 +1,128 @@
+/**
+ * Divides a field into square tiles and remembers which of them need to be
+ * stepped. A cell's next state only depends on itself and its neighbours, so
+ * a tile in which nothing changed, next to tiles in which nothing changed,
+ * will not change either and can be skipped.
+ *
+ * Each generation the simulator marks every cell that changed, or whose
+ * behaviour is not settled (see Cell.isVolatile). That makes the tiles
+ * holding the cell and its neighbours active for the next generation. On
+ * a toroidal field the neighbours of a cell on an edge include the tiles on
+ * the opposite edge.
+ */
+
+public class ActiveTiles {
+    public static final int TILE_SIZE = 16;
+
+    private final int depth, width;
+    private final int tileRows, tileCols;
+    private final boolean wrap; // the field's edges wrap around
+    private boolean[] active; // tiles stepped in this generation
+    private boolean[] nextActive; // tiles to step in the next generation
+
+    /**
+     * Create the tiles for a field of the given size, all of them active.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ActiveTiles(int depth, int width) {
+        this(depth, width, false);
+    }
+
+    /**
+     * Create the tiles for a field of the given size, all of them active.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param wrap Whether the field is toroidal.
+     */
+    public ActiveTiles(int depth, int width, boolean wrap) {
+        this.depth = depth;
+        this.width = width;
+        this.wrap = wrap;
+        tileRows = (depth + TILE_SIZE - 1) / TILE_SIZE;
+        tileCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        active = new boolean[tileRows * tileCols];
+        nextActive = new boolean[tileRows * tileCols];
+        activateAll();
+    }
+
+    /**
+     * Make every tile active, e.g. after the field has been reset.
+     */
+    public void activateAll() {
+        for (int i = 0; i < active.length; i++) {
+            active[i] = true;
+            nextActive[i] = false;
+        }
+    }
+
+    /**
+     * Check whether the tile holding a position is stepped in this generation.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @return true if the tile is active.
+     */
+    public boolean isActive(int row, int col) {
+        return active[(row / TILE_SIZE) * tileCols + col / TILE_SIZE];
+    }
+
+    /**
+     * Record that the cell at a position changed, or may change, so that it
+     * and its neighbours are stepped in the next generation.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     */
+    public void markChanged(int row, int col) {
+        if (wrap && (row == 0 || row == depth - 1 || col == 0 || col == width - 1)) {
+            for (int r = row - 1; r <= row + 1; r++) {
+                int tileRow = Math.floorMod(r, depth) / TILE_SIZE;
+                for (int c = col - 1; c <= col + 1; c++) {
+                    nextActive[tileRow * tileCols + Math.floorMod(c, width) / TILE_SIZE] = true;
+                }
+            }
+            return;
+        }
+        int firstRow = Math.max(0, row - 1) / TILE_SIZE;
+        int lastRow = Math.min(depth - 1, row + 1) / TILE_SIZE;
+        int firstCol = Math.max(0, col - 1) / TILE_SIZE;
+        int lastCol = Math.min(width - 1, col + 1) / TILE_SIZE;
+        for (int tileRow = firstRow; tileRow <= lastRow; tileRow++) {
+            for (int tileCol = firstCol; tileCol <= lastCol; tileCol++) {
+                nextActive[tileRow * tileCols + tileCol] = true;
+            }
+        }
+    }
+
+    /**
+     * Move on to the next generation: the tiles marked during this one
+     * become the active tiles.
+     */
+    public void advance() {
+        boolean[] swap = active;
+        active = nextActive;
+        nextActive = swap;
+        for (int i = 0; i < nextActive.length; i++) {
+            nextActive[i] = false;
+        }
+    }
+
+    /**
+     * @return The number of tiles stepped in this generation.
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (boolean tile : active) {
+            if (tile) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The total number of tiles.
+     */
+    public int getTileCount() {
+        return active.length;
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs the simulation from the command line without a user interface, for
+ * batch experiments on machines without a display or a JavaFX runtime.
+ * It steps the requested number of generations and prints the throughput
+ * and the population of each species.
+ *
+ * Usage: java BatchRunner [generations] [depth] [width] [-threads n] [-compact] [-tiles] [-report n] [-seed n]
+ *                         [-boundary mode] [-checkpoint n file] [-resume file] [-record n file] [-metrics n]
+ *                         [-cycles n stop|skip]
+ *   -threads n  step the cells on n threads
+ *   -compact    store the field in a CompactField instead of Cell objects
+ *   -tiles      skip the parts of the field where nothing is happening
+ *   -report n   also print the population every n generations
+ *   -seed n     start from seed n, to repeat an earlier run
+ *   -boundary mode      clipped (the default), toroidal or dead (the edges stay dead)
+ *   -checkpoint n file  save the run to file every n generations
+ *   -resume file        carry on from a snapshot saved with -checkpoint
+ *   -record n file      log every generation to file, with a keyframe every n generations
+ *   -metrics n  print a report of where the time goes (see Metrics) every n seconds; the JVM
+ *               must be started with -Dlife.metrics=true
+ *   -cycles n stop|skip  watch for cycles of up to n generations (see CycleDetector) and, once
+ *                        the field is in one, stop or skip to the end of the run
+ */
+
+public class BatchRunner {
+    private static final int DEFAULT_GENERATIONS = 1000;
+
+    /**
+     * Run a batch simulation.
+     * @param args The command line arguments, as described above.
+     * @throws IOException If a snapshot cannot be read or the run cannot be recorded.
+     */
+    public static void main(String[] args) throws IOException {
+        int generations = DEFAULT_GENERATIONS;
+        int depth = Simulator.DEFAULT_DEPTH;
+        int width = Simulator.DEFAULT_WIDTH;
+        int threads = 1;
+        int report = 0;
+        boolean compact = false;
+        boolean tiles = false;
+        int boundary = Field.CLIPPED;
+        int checkpointInterval = 0;
+        Path checkpointFile = null;
+        Path resumeFile = null;
+        int keyframeInterval = 0;
+        Path recordFile = null;
+        int metricsInterval = 0;
+        int cycleWindow = 0;
+        boolean skipCycles = false;
+
+        int position = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-compact")) {
+                compact = true;
+            }
+            else if (args[i].equals("-tiles")) {
+                tiles = true;
+            }
+            else if (args[i].equals("-report")) {
+                report = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-seed")) {
+                Randomizer.setSeed(Long.parseLong(args[++i]));
+            }
+            else if (args[i].equals("-boundary")) {
+                boundary = Field.parseBoundary(args[++i]);
+            }
+            else if (args[i].equals("-checkpoint")) {
+                checkpointInterval = Integer.parseInt(args[++i]);
+                checkpointFile = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("-resume")) {
+                resumeFile = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("-record")) {
+                keyframeInterval = Integer.parseInt(args[++i]);
+                recordFile = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("-metrics")) {
+                metricsInterval = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-cycles")) {
+                cycleWindow = Integer.parseInt(args[++i]);
+                String action = args[++i];
+                if (!action.equals("stop") && !action.equals("skip")) {
+                    System.err.println("-cycles needs stop or skip, not " + action);
+                    System.exit(1);
+                }
+                skipCycles = action.equals("skip");
+            }
+            else if (position == 0) {
+                generations = Integer.parseInt(args[i]);
+                position++;
+            }
+            else if (position == 1) {
+                depth = Integer.parseInt(args[i]);
+                position++;
+            }
+            else if (position == 2) {
+                width = Integer.parseInt(args[i]);
+                position++;
+            }
+            else {
+                System.err.println("Unexpected argument: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        if (metricsInterval > 0 && !Metrics.ENABLED) {
+            System.err.println("-metrics needs the JVM to be started with -Dlife.metrics=true");
+            System.exit(1);
+        }
+        if (compact && boundary != Field.CLIPPED) {
+            System.err.println("-compact fields can only be clipped");
+            System.exit(1);
+        }
+        if (compact && (checkpointFile != null || resumeFile != null || recordFile != null || cycleWindow > 0)) {
+            System.err.println("-checkpoint, -resume, -record and -cycles need Cell objects, not -compact");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        Simulator simulator;
+        if (resumeFile != null) {
+            Snapshot snapshot = Snapshot.read(resumeFile);
+            depth = snapshot.getDepth();
+            width = snapshot.getWidth();
+            simulator = new Simulator(depth, width);
+            simulator.restore(snapshot);
+        }
+        else {
+            simulator = new Simulator(depth, width, compact, boundary);
+        }
+        simulator.setParallelism(threads);
+        simulator.setActiveTileTracking(tiles);
+        long setup = System.nanoTime() - start;
+        System.out.println((resumeFile != null ? "Resumed " : "Populated ") + depth + "x" + width
+            + " " + Field.getBoundaryName(simulator.getField().getBoundary())
+            + " field in " + setup / 1000000 + " ms (seed " + simulator.getSeed()
+            + ", generation " + simulator.getGeneration() + ")");
+
+        Checkpointer checkpointer = null;
+        if (checkpointFile != null) {
+            checkpointer = new Checkpointer(checkpointFile, checkpointInterval);
+            simulator.addGenerationListener(checkpointer);
+        }
+        GenerationRecorder recorder = null;
+        if (recordFile != null) {
+            recorder = new GenerationRecorder(simulator, recordFile, keyframeInterval);
+            simulator.addGenerationListener(recorder);
+        }
+
+        CycleDetector cycles = null;
+        if (cycleWindow > 0) {
+            cycles = new CycleDetector(cycleWindow);
+            simulator.addGenerationListener(cycles);
+        }
+        if (metricsInterval > 0) {
+            Metrics.startReporting(System.out, metricsInterval);
+        }
+
+        start = System.nanoTime();
+        int done = 0;
+        while (done < generations) {
+            int count = report > 0 ? Math.min(report, generations - done) : generations - done;
+            if (cycles != null) {
+                count = 1; // so the run stops as soon as it is in a cycle
+            }
+            simulator.simGenerations(count);
+            done += count;
+            if (cycles != null && cycles.isCycling()) {
+                System.out.println("Generation " + simulator.getGeneration() + ": in a cycle of period "
+                    + cycles.getPeriod() + " since generation " + cycles.getCycleStart());
+                if (!skipCycles) {
+                    break;
+                }
+                // the field is the same after any whole number of periods
+                int skip = (generations - done) / cycles.getPeriod() * cycles.getPeriod();
+                simulator.skipGenerations(skip);
+                done += skip;
+                simulator.simGenerations(generations - done);
+                done = generations;
+            }
+            if (report > 0 && (cycles == null || simulator.getGeneration() % report == 0 || done == generations)) {
+                System.out.println("Generation " + simulator.getGeneration() + ": " + getPopulation(simulator)
+                    + getDisease(simulator, compact) + getActivity(simulator));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (checkpointer != null) {
+            checkpointer.flush();
+        }
+        if (recorder != null) {
+            recorder.close();
+        }
+
+        System.out.printf("%d generations in %.3f s: %.1f generations/s, %.3g cells/s%n",
+            done, seconds, done / seconds, (double) done * depth * width / seconds);
+        System.out.println("Population: " + getPopulation(simulator));
+        if (metricsInterval > 0) {
+            System.out.print(Metrics.get().getReport());
+        }
+        simulator.setParallelism(1);
+    }
+
+    /**
+     * Describe how far the disease has spread, when the field is made of Cell objects.
+     */
+    private static String getDisease(Simulator simulator, boolean compact) {
+        if (compact) {
+            return "";
+        }
+        Epidemic epidemic = simulator.getField().getEpidemic();
+        return "(" + epidemic.getInfectedCount() + " infected, " + epidemic.getNewInfections() + " new, "
+            + epidemic.getDeaths() + " killed) ";
+    }
+
+    /**
+     * Describe how much of the field is being stepped.
+     */
+    private static String getActivity(Simulator simulator) {
+        ActiveTiles tiles = simulator.getActiveTiles();
+        if (tiles == null) {
+            return "";
+        }
+        return "(" + tiles.getActiveCount() + " of " + tiles.getTileCount() + " tiles active)";
+    }
+
+    /**
+     * Describe the number of living cells of each species.
+     */
+    private static String getPopulation(Simulator simulator) {
+        StringBuilder buffer = new StringBuilder();
+        for (int species = 0; species < Species.getCount(); species++) {
+            buffer.append(Species.getName(species));
+            buffer.append(": ");
+            buffer.append(simulator.getPopulation(species));
+            buffer.append(' ');
+        }
+        return buffer.toString();
+    }
+}
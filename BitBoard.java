@@ -0,0 +1,211 @@
+import java.util.Arrays;
+
+/**
+ * Stores a field as bit planes: one bit per position, 64 positions to a
+ * long, each row starting on a fresh word. There is a plane for each kind
+ * of cell being tracked (normally one per species, set where a cell of that
+ * species is alive) and a separate plane of infected cells.
+ *
+ * The neighbour counting kernel adds up the eight neighbours of all 64
+ * positions in a word at once with bit-sliced adders, producing the count
+ * for every position of a row as four bit planes. Like
+ * Field.countLivingNeighbours it only counts cells that are not infected.
+ */
+
+public class BitBoard {
+    private final int depth, width;
+    private final int wordsPerRow;
+    private final long[][] planes;
+    private final long[] infected;
+
+    /**
+     * Create an empty board.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param planeCount The number of planes, not counting the infected plane.
+     */
+    public BitBoard(int depth, int width, int planeCount) {
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        planes = new long[planeCount][depth * wordsPerRow];
+        infected = new long[depth * wordsPerRow];
+    }
+
+    /**
+     * Build a board from a field, with one plane per species holding its
+     * living cells.
+     * @param field The field to copy.
+     * @return The board.
+     */
+    public static BitBoard of(Field field) {
+        BitBoard board = new BitBoard(field.getDepth(), field.getWidth(), Species.getCount());
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell != null) {
+                    board.set(Species.of(cell), row, col, cell.isAlive());
+                    board.setInfected(row, col, cell.isInfected());
+                }
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Clear every plane.
+     */
+    public void clear() {
+        for (long[] plane : planes) {
+            Arrays.fill(plane, 0);
+        }
+        Arrays.fill(infected, 0);
+    }
+
+    /**
+     * Set or clear the bit for a position in one plane.
+     */
+    public void set(int plane, int row, int col, boolean value) {
+        set(planes[plane], row, col, value);
+    }
+
+    /**
+     * @return true if the bit for a position is set in a plane.
+     */
+    public boolean get(int plane, int row, int col) {
+        return (planes[plane][row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Mark a position as infected or not.
+     */
+    public void setInfected(int row, int col, boolean value) {
+        set(infected, row, col, value);
+    }
+
+    private void set(long[] bits, int row, int col, boolean value) {
+        int word = row * wordsPerRow + (col >>> 6);
+        if (value) {
+            bits[word] |= 1L << col;
+        }
+        else {
+            bits[word] &= ~(1L << col);
+        }
+    }
+
+    /**
+     * Count, for every position of a row, the uninfected neighbours set in
+     * a plane. The counts are returned bit-sliced: counts[k * getWordsPerRow() + w]
+     * holds bit k of the counts of the 64 positions in word w.
+     * @param plane The plane whose cells are counted.
+     * @param row The row to count for.
+     * @param counts Receives the counts; needs room for 4 * getWordsPerRow() words.
+     */
+    public void countRow(int plane, int row, long[] counts) {
+        long[] bits = planes[plane];
+        int above = (row - 1) * wordsPerRow;
+        int middle = row * wordsPerRow;
+        int below = (row + 1) * wordsPerRow;
+        boolean hasAbove = row > 0;
+        boolean hasBelow = row < depth - 1;
+
+        for (int w = 0; w < wordsPerRow; w++) {
+            // rows above and below contribute left, centre and right: a 2 bit sum each
+            long upSum = 0, upCarry = 0;
+            if (hasAbove) {
+                long l = left(bits, above, w), c = word(bits, above, w), r = right(bits, above, w);
+                upSum = l ^ c ^ r;
+                upCarry = (l & c) | (r & (l ^ c));
+            }
+            long downSum = 0, downCarry = 0;
+            if (hasBelow) {
+                long l = left(bits, below, w), c = word(bits, below, w), r = right(bits, below, w);
+                downSum = l ^ c ^ r;
+                downCarry = (l & c) | (r & (l ^ c));
+            }
+            // own row contributes left and right only
+            long l = left(bits, middle, w), r = right(bits, middle, w);
+            long sideSum = l ^ r;
+            long sideCarry = l & r;
+
+            // add the ones
+            long ones = upSum ^ downSum ^ sideSum;
+            long onesCarry = (upSum & downSum) | (sideSum & (upSum ^ downSum));
+            // add the twos
+            long twoSum = upCarry ^ downCarry ^ sideCarry;
+            long twoCarry = (upCarry & downCarry) | (sideCarry & (upCarry ^ downCarry));
+            long twos = twoSum ^ onesCarry;
+            long fourCarry = twoSum & onesCarry;
+            // add the fours
+            long fours = twoCarry ^ fourCarry;
+            long eights = twoCarry & fourCarry;
+
+            counts[w] = ones;
+            counts[wordsPerRow + w] = twos;
+            counts[2 * wordsPerRow + w] = fours;
+            counts[3 * wordsPerRow + w] = eights;
+        }
+    }
+
+    /**
+     * Read one position's count out of the result of countRow.
+     * @param counts The counts filled in by countRow.
+     * @param col The column of the position.
+     * @return The number of neighbours, from 0 to 8.
+     */
+    public int getCount(long[] counts, int col) {
+        int w = col >>> 6;
+        return (int) ((counts[w] >>> col) & 1)
+             | (int) ((counts[wordsPerRow + w] >>> col) & 1) << 1
+             | (int) ((counts[2 * wordsPerRow + w] >>> col) & 1) << 2
+             | (int) ((counts[3 * wordsPerRow + w] >>> col) & 1) << 3;
+    }
+
+    /**
+     * Count the uninfected neighbours of one position that are set in a
+     * plane. With a plane per species this gives the same answer as
+     * Field.countLivingNeighbours.
+     */
+    public int countLivingNeighbours(int row, int col, int plane) {
+        int count = 0;
+        for (int r = Math.max(0, row - 1); r <= Math.min(depth - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                if ((r != row || c != col) && get(plane, r, c)
+                        && (infected[r * wordsPerRow + (c >>> 6)] & (1L << c)) == 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of longs used for each row.
+     */
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * The uninfected cells of a word.
+     */
+    private long word(long[] bits, int rowStart, int w) {
+        return bits[rowStart + w] & ~infected[rowStart + w];
+    }
+
+    /**
+     * The uninfected cells of a word, moved so each bit holds the cell to its left.
+     */
+    private long left(long[] bits, int rowStart, int w) {
+        long carry = w > 0 ? word(bits, rowStart, w - 1) >>> 63 : 0;
+        return (word(bits, rowStart, w) << 1) | carry;
+    }
+
+    /**
+     * The uninfected cells of a word, moved so each bit holds the cell to its right.
+     */
+    private long right(long[] bits, int rowStart, int w) {
+        long carry = w < wordsPerRow - 1 ? word(bits, rowStart, w + 1) << 63 : 0;
+        return (word(bits, rowStart, w) >>> 1) | carry;
+    }
+}
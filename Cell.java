@@ -1,8 +1,5 @@
  
 
-import javafx.scene.paint.Color; 
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A class representing the shared characteristics of all forms of life
@@ -12,7 +9,6 @@ import java.util.List;
  */
 
 public abstract class Cell {
-    protected List<Cell> neighbours;
     private Field field;
     private Location location;
     
@@ -27,9 +23,9 @@ public abstract class Cell {
     private boolean nextAlive; // The state of the cell in the next iteration
     
     // attributes to set color
-    private Color color = Color.WHITE;
-    private static final Color LIGHT_GRAY = Color.rgb(160,160,160);
-    private static final Color DARK_GRAY = Color.rgb(96,96,96);
+    private int color = Colors.WHITE;
+    private static final int LIGHT_GRAY = Colors.rgb(160,160,160);
+    private static final int DARK_GRAY = Colors.rgb(96,96,96);
 
     /**
      * Create a new cell at location in field.
@@ -37,7 +33,7 @@ public abstract class Cell {
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Cell(Field field, Location location, Color col) {
+    public Cell(Field field, Location location, int col) {
         alive = true;
         nextAlive = false;
         infected = false;
@@ -54,13 +50,16 @@ public abstract class Cell {
     abstract public void act();
     
     /**
-     * Checks whether the cell should or shouldnt be able to come back alive.
+     * Return the species the cell belongs to, which holds the rules for
+     * bringing dead positions back to life as that species.
+     * @return The cell's species.
      */
-    abstract public boolean canRevive();
+    abstract public Species getSpecies();
     
     /**
      * Updates the cell's disease infection state.
-     * After some time, cell might spread disease to neighbouring cells
+     * After some time, cell might spread disease to neighbouring cells.
+     * The field's Epidemic calls this once a generation for each infected cell.
      */
     protected void updateInfectionState() {
         if(isInfected() && isAlive()) {
@@ -80,13 +79,26 @@ public abstract class Cell {
     }
     
     /**
-     * Tries to spread disease to neighbouring cell
+     * Tries to spread disease to uninfected living neighbours of the same species.
+     * They become infected when the generation is committed.
      */
     protected void spreadDisease() {
         if(canSpread) {
-            for(Cell cell: neighbours) {
-                if(Math.random() <= SPREAD_PROB) {
-                    cell.setInfected();
+            for(int d = 0; d < Field.NEIGHBOURHOOD_SIZE; d++) {
+                Cell cell = field.getNeighbour(location, d);
+                if(cell != null && cell.getSpecies() == getSpecies() && cell.isAlive() && !cell.isInfected()
+                        && field.random(location, Randomizer.SPREAD + d) <= SPREAD_PROB) {
+                    field.getEpidemic().infect(cell);
+                    SimulationEvents.Infection event = new SimulationEvents.Infection();
+                    if (event.isEnabled()) {
+                        event.generation = field.getGeneration();
+                        event.species = getSpecies().getName();
+                        event.row = cell.getLocation().getRow() + field.getRowOffset();
+                        event.col = cell.getLocation().getCol();
+                        event.sourceRow = location.getRow() + field.getRowOffset();
+                        event.sourceCol = location.getCol();
+                        event.commit();
+                    }
                 }
             }
         }
@@ -99,6 +111,7 @@ public abstract class Cell {
         if(!infected) {
             infected = true;
             setColor(LIGHT_GRAY);
+            field.getEpidemic().add(this);
         }
     }
     
@@ -141,25 +154,104 @@ public abstract class Cell {
 
     /**
      * Changes the state of the cell
+     * @return true if the cell came to life or died.
      */
-    public void updateState() {
+    public boolean updateState() {
+        boolean changed = alive != nextAlive;
         alive = nextAlive;
+        if (changed) {
+            field.updatePopulation(this, alive ? 1 : -1);
+            field.markChanged(location.getRow(), location.getCol());
+        }
+        return changed;
+    }
+
+    /**
+     * Check whether the cell may change even when nothing around it does,
+     * e.g. because it is ill or behaves randomly. Cells that are not
+     * volatile and whose neighbours did not change can be skipped.
+     * @return true if the cell's behaviour is not settled.
+     */
+    public boolean isVolatile() {
+        return alive && infected;
+    }
+    
+    /**
+     * Called when the neighbouring position in the given direction gets a
+     * new occupant, so a cell that remembers something about that neighbour
+     * can forget it.
+     * @param direction The direction of the neighbour, as used by Field.getNeighbour.
+     */
+    protected void neighbourReplaced(int direction) {
     }
     
     /**
      * Changes the color of the cell
      */
-    public void setColor(Color col) {
-        color = col;
+    public void setColor(int col) {
+        if (col != color) {
+            color = col;
+            field.markChanged(location.getRow(), location.getCol());
+        }
     }
 
     /**
      * Returns the cell's color
      */
-    public Color getColor() {
+    public int getColor() {
         return color;
     }
 
+    /**
+     * Copy the cell's state into a snapshot.
+     * @param snapshot The snapshot being taken.
+     * @param index The cell's position, as row * width + col.
+     */
+    void save(Snapshot snapshot, int index) {
+        int flags = (alive ? Snapshot.ALIVE : 0) | (infected ? Snapshot.INFECTED : 0)
+            | (canSpread ? Snapshot.CAN_SPREAD : 0) | (killed ? Snapshot.KILLED : 0);
+        snapshot.setCell(index, Species.of(this), flags, infectedDuration, color);
+    }
+
+    /**
+     * Give a newly created cell the state saved in a snapshot.
+     * @param snapshot The snapshot being restored.
+     * @param index The cell's position, as row * width + col.
+     */
+    void restore(Snapshot snapshot, int index) {
+        setNextState(snapshot.hasFlag(index, Snapshot.ALIVE));
+        updateState();
+        infectedDuration = snapshot.getInfectedDuration(index);
+        canSpread = snapshot.hasFlag(index, Snapshot.CAN_SPREAD);
+        killed = snapshot.hasFlag(index, Snapshot.KILLED);
+        if (snapshot.hasFlag(index, Snapshot.INFECTED)) {
+            setInfected();
+        }
+        setColor(snapshot.getColor(index));
+    }
+
+    /**
+     * Return what the neighbours of the cell can see of it, for a ghost
+     * copy of it in another shard (see Halo).
+     * @return Snapshot.ALIVE and Snapshot.INFECTED bits.
+     */
+    int getMirrorFlags() {
+        return (alive ? Snapshot.ALIVE : 0) | (infected ? Snapshot.INFECTED : 0);
+    }
+
+    /**
+     * Make this cell, a ghost copy of a cell owned by another shard, look
+     * like the original. Unlike setInfected this does not add the cell to
+     * the epidemic, and nothing is counted in the population.
+     * @param flags The original's flags, from getMirrorFlags.
+     */
+    void mirror(int flags) {
+        alive = (flags & Snapshot.ALIVE) != 0;
+        nextAlive = alive;
+        infected = (flags & Snapshot.INFECTED) != 0;
+        killed = false; // set again if a neighbour kills it
+    }
+
     /**
      * Return the cell's location.
      * @return The cell's location.
@@ -0,0 +1,192 @@
+import java.util.Arrays;
+
+/**
+ * Remembers which positions of a field changed in a way that shows: a cell
+ * came to life or died, changed colour, or was replaced. There is one bit
+ * per position, and each row starts on a fresh long, so threads working on
+ * different rows never write to the same word.
+ *
+ * Changes build up until they are cleared, so a view that skips some
+ * generations still repaints everything that changed in them.
+ */
+
+public class ChangeMap {
+    private final int depth, width;
+    private final int wordsPerRow;
+    private final long[] bits;
+
+    // rectangles still growing while the regions are collected, sorted by column
+    private final int[] openTop, openStart, openEnd;
+    private final int[] nextTop, nextStart, nextEnd;
+
+    /**
+     * Create a map for a field of the given size, with every position marked.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ChangeMap(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        bits = new long[depth * wordsPerRow];
+        int maxRuns = (width + 1) / 2;
+        openTop = new int[maxRuns];
+        openStart = new int[maxRuns];
+        openEnd = new int[maxRuns];
+        nextTop = new int[maxRuns];
+        nextStart = new int[maxRuns];
+        nextEnd = new int[maxRuns];
+        markAll();
+    }
+
+    /**
+     * Record that the position at (row, col) changed.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     */
+    public void mark(int row, int col) {
+        bits[row * wordsPerRow + (col >>> 6)] |= 1L << col;
+    }
+
+    /**
+     * Record that every position changed, e.g. after the field was reset.
+     */
+    public void markAll() {
+        for (int row = 0; row < depth; row++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                int left = width - w * 64; // columns in this word
+                bits[row * wordsPerRow + w] = left >= 64 ? -1L : (1L << left) - 1;
+            }
+        }
+    }
+
+    /**
+     * @return true if the position at (row, col) changed.
+     */
+    public boolean isMarked(int row, int col) {
+        return (bits[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Add every change recorded in another map of the same size.
+     * @param other The map whose changes are added.
+     */
+    public void addAll(ChangeMap other) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+    }
+
+    /**
+     * Forget every change.
+     */
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    /**
+     * Cover the changed positions with rectangles and hand them to a
+     * consumer. Runs of changed positions in a row become rectangles one
+     * row high, and runs spanning the same columns in consecutive rows are
+     * merged into one taller rectangle.
+     * @param consumer Receives the rectangles.
+     */
+    public void forEachRegion(RegionConsumer consumer) {
+        int open = 0;
+        for (int row = 0; row < depth; row++) {
+            int next = 0;
+            int i = 0; // next open rectangle to compare against
+            int col = nextMarked(row, 0);
+            while (col < width) {
+                int end = nextUnmarked(row, col);
+                // close the open rectangles that end before this run
+                while (i < open && openStart[i] < col) {
+                    consumer.accept(openTop[i], openStart[i], row - openTop[i], openEnd[i] - openStart[i]);
+                    i++;
+                }
+                int top = row;
+                if (i < open && openStart[i] == col && openEnd[i] == end) {
+                    top = openTop[i++];
+                }
+                nextTop[next] = top;
+                nextStart[next] = col;
+                nextEnd[next] = end;
+                next++;
+                col = nextMarked(row, end);
+            }
+            while (i < open) {
+                consumer.accept(openTop[i], openStart[i], row - openTop[i], openEnd[i] - openStart[i]);
+                i++;
+            }
+            System.arraycopy(nextTop, 0, openTop, 0, next);
+            System.arraycopy(nextStart, 0, openStart, 0, next);
+            System.arraycopy(nextEnd, 0, openEnd, 0, next);
+            open = next;
+        }
+        for (int i = 0; i < open; i++) {
+            consumer.accept(openTop[i], openStart[i], depth - openTop[i], openEnd[i] - openStart[i]);
+        }
+    }
+
+    /**
+     * Hand each run of changed positions to a consumer, row by row from the
+     * top and from left to right within a row. Each run is one row high.
+     * @param consumer Receives the runs.
+     */
+    public void forEachRun(RegionConsumer consumer) {
+        for (int row = 0; row < depth; row++) {
+            int col = nextMarked(row, 0);
+            while (col < width) {
+                int end = nextUnmarked(row, col);
+                consumer.accept(row, col, 1, end - col);
+                col = nextMarked(row, end);
+            }
+        }
+    }
+
+    /**
+     * @return The first marked column of a row at or after col, or width if there is none.
+     */
+    private int nextMarked(int row, int col) {
+        if (col >= width) {
+            return width;
+        }
+        int w = col >>> 6;
+        long word = bits[row * wordsPerRow + w] & (-1L << col);
+        while (word == 0) {
+            if (++w == wordsPerRow) {
+                return width;
+            }
+            word = bits[row * wordsPerRow + w];
+        }
+        return Math.min(width, w * 64 + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * @return The first unmarked column of a row at or after col, or width if there is none.
+     */
+    private int nextUnmarked(int row, int col) {
+        int w = col >>> 6;
+        long word = ~bits[row * wordsPerRow + w] & (-1L << col);
+        while (word == 0) {
+            if (++w == wordsPerRow) {
+                return width;
+            }
+            word = ~bits[row * wordsPerRow + w];
+        }
+        return Math.min(width, w * 64 + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * Receives the rectangles covering the changed positions.
+     */
+    public interface RegionConsumer {
+        /**
+         * @param row The top row of the rectangle.
+         * @param col The left column of the rectangle.
+         * @param height The number of rows it covers.
+         * @param width The number of columns it covers.
+         */
+        void accept(int row, int col, int height, int width);
+    }
+}
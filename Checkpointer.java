@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Saves a running simulation to a snapshot file every so many generations,
+ * so a long run can be resumed after it stops.
+ *
+ * Taking a checkpoint only copies the cells into a Snapshot between two
+ * generations; writing the file happens on a background thread while the
+ * simulation carries on. There are two snapshots, so the next one can be
+ * taken while the last is being written. If both are still busy when a
+ * checkpoint is due, the checkpoint is put off until a snapshot is free,
+ * and taken after the first generation that finds one, rather than
+ * holding up the simulation. The file always holds a complete snapshot: each one is
+ * written beside it and then moved into place.
+ */
+
+public class Checkpointer implements GenerationListener {
+    private final Path file;
+    private final int interval;
+    private final Snapshot[] spare = {new Snapshot(), new Snapshot()}; // snapshots not being written
+    private int spareCount = 2;
+    private int nextGeneration; // generation of the next checkpoint
+    private Thread writer; // writing the last snapshot taken, or null
+
+    /**
+     * Create a checkpointer. It has to be added to a simulator as a
+     * GenerationListener.
+     * @param file The file to keep the latest snapshot in.
+     * @param interval The number of generations between checkpoints.
+     */
+    public Checkpointer(Path file, int interval) {
+        this.file = file;
+        this.interval = interval;
+        nextGeneration = interval;
+    }
+
+    /**
+     * Take a checkpoint if one is due.
+     * @param simulator The simulator being run.
+     */
+    public void generationFinished(Simulator simulator) {
+        if (simulator.getGeneration() < nextGeneration) {
+            return;
+        }
+        Snapshot snapshot;
+        synchronized (this) {
+            if (spareCount == 0) {
+                return; // still writing; try again after the next generation
+            }
+            snapshot = spare[--spareCount];
+        }
+        snapshot.capture(simulator);
+        nextGeneration = simulator.getGeneration() - simulator.getGeneration() % interval + interval;
+
+        Thread previous = writer;
+        writer = new Thread(() -> write(snapshot, previous), "checkpoint");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write a snapshot once the one taken before it has been written, so
+     * the file never goes back to an older generation.
+     */
+    private void write(Snapshot snapshot, Thread previous) {
+        try {
+            if (previous != null) {
+                previous.join();
+            }
+            snapshot.write(file);
+        }
+        catch (IOException e) {
+            System.err.println("Checkpoint of generation " + snapshot.getGeneration() + " failed: " + e);
+        }
+        catch (InterruptedException ie) {
+            // give up on this checkpoint
+        }
+        synchronized (this) {
+            spare[spareCount++] = snapshot;
+        }
+    }
+
+    /**
+     * Wait until every snapshot taken has been written.
+     */
+    public void flush() {
+        Thread last = writer;
+        if (last != null) {
+            try {
+                last.join();
+            }
+            catch (InterruptedException ie) {
+                // stop waiting
+            }
+        }
+    }
+}
@@ -1,7 +1,5 @@
  
 
-import javafx.scene.paint.Color; 
-import java.util.List;
 
 /**
  * Chromacystis is a bioluminescent micro-organism that glows different colors based on its mood.
@@ -17,14 +15,15 @@ import java.util.List;
 
 public class Chromacystis extends Cell {
     
-    public static final Color LIGHT_GREEN = Color.rgb(0, 255, 51);
+    public static final int LIGHT_GREEN = Colors.rgb(0, 255, 51);
+    private static final Species SPECIES = Species.get(Species.CHROMACYSTIS);
     /**
      * Create a new Chromacystis.
      *
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Chromacystis(Field field, Location location, Color col) {
+    public Chromacystis(Field field, Location location, int col) {
         super(field, location, col);
     }
 
@@ -32,25 +31,12 @@ public class Chromacystis extends Cell {
     * This is how the Chromacystis decides if it's alive or not
     */
     public void act() {
-        neighbours = getField().getLivingNeighbours(getLocation(), Chromacystis.class); // updates neighbour list
-        updateInfectionState();
+        int neighbours = getField().countLivingNeighbours(getLocation(), SPECIES);
         
     
         if (isAlive() && !isInfected()) {
-            updateColor();
-            
-            if (neighbours.size() == 1) {
-                setNextState(true);
-            }
-            else if (neighbours.size() == 2) {
-                setNextState(true);
-            }
-            else if (neighbours.size() == 3) {
-                setNextState(true);
-            }
-            else {
-                setNextState(false);
-            }
+            updateColor(neighbours);
+            setNextState(SPECIES.survives(neighbours)); // survives with 1 to 3 neighbours
         }
         else if(!isAlive() && !isInfected()) {
             setNextState(false);
@@ -58,33 +44,39 @@ public class Chromacystis extends Cell {
     }
     
     /**
-     * Certain conditions are checked to determine if the cell can be revived
-     * If the Chromacystis cell has 3 cells adjacent to it, it can be revived
-     * @return True if the cell can be revived
+     * @return The Chromacystis species.
      */
-    public boolean canRevive(){
-        neighbours = getField().getLivingNeighbours(getLocation(), Chromacystis.class); // updates neighbour list
-        if(neighbours == null || getKilled()) {
-            return false;
-        }
-        else {
-            return neighbours.size() == 3;
-        }
+    public Species getSpecies() {
+        return SPECIES;
     }
     
     /**
      * Updates the color of the cell based on its neighbour size
+     * @param neighbours The number of living Chromacystis neighbours
      */
-    public void updateColor() {
-        neighbours = getField().getLivingNeighbours(getLocation(), Chromacystis.class);
-        if (neighbours.size() == 1) {
-            setColor(Color.BLUE);
+    public void updateColor(int neighbours) {
+        if (neighbours == 1) {
+            setColor(Colors.BLUE);
         }
-        else if (neighbours.size() == 2) {
+        else if (neighbours == 2) {
             setColor(LIGHT_GREEN);
         }
-        else if (neighbours.size() == 3) {
-            setColor(Color.RED);
+        else if (neighbours == 3) {
+            setColor(Colors.RED);
+        }
+    }
+    
+    /**
+     * The rules of the Chromacystis species: a cell survives with 1 to 3
+     * Chromacystis neighbours, and a dead position with exactly 3 comes to life.
+     */
+    static class Rules extends Species {
+        Rules() {
+            super("Chromacystis", table(1, 2, 3), table(3));
+        }
+        
+        public Cell create(Field field, Location location) {
+            return new Chromacystis(field, location, Colors.YELLOW);
         }
     }
 }
@@ -0,0 +1,45 @@
+/**
+ * Colours used by the simulation, packed as 0xRRGGBB integers so that the
+ * simulation itself does not depend on JavaFX. The view turns them into
+ * the colours it draws with.
+ */
+
+public class Colors {
+    public static final int WHITE = rgb(255, 255, 255);
+    public static final int ORANGE = rgb(255, 165, 0);
+    public static final int YELLOW = rgb(255, 255, 0);
+    public static final int BLUE = rgb(0, 0, 255);
+    public static final int RED = rgb(255, 0, 0);
+
+    /**
+     * Pack a colour from its components.
+     * @param red The red component, from 0 to 255.
+     * @param green The green component, from 0 to 255.
+     * @param blue The blue component, from 0 to 255.
+     * @return The packed colour.
+     */
+    public static int rgb(int red, int green, int blue) {
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * @return The red component of a packed colour.
+     */
+    public static int getRed(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    /**
+     * @return The green component of a packed colour.
+     */
+    public static int getGreen(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    /**
+     * @return The blue component of a packed colour.
+     */
+    public static int getBlue(int color) {
+        return color & 0xFF;
+    }
+}
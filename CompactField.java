@@ -0,0 +1,552 @@
+import java.util.Arrays;
+
+/**
+ * A field engine that stores every position as a handful of primitive values
+ * instead of a Cell object. The state of each position lives in parallel
+ * arrays indexed by row * width + col, so a field costs about seven bytes per
+ * position and creates no garbage while stepping.
+ *
+ * The same species rules as Mycoplasma, Chromacystis, Phasophyta and
+ * Polycephalum are applied, but every generation is evaluated in three passes
+ * (act, revive, commit) against the state at the start of the generation:
+ * infections, Phasophyta kills and revivals only become visible to other
+ * positions when the generation is committed.
+ *
+ * Because every pass reads the state at the start of the generation, the
+ * neighbour counts can be worked out a whole row at a time: the living
+ * cells of each species are also kept in a BitBoard, which counts the
+ * neighbours of 64 positions with a few dozen word operations.
+ */
+
+public class CompactField {
+    // bits of the flags array
+    private static final int ALIVE = 1;
+    private static final int NEXT_ALIVE = 2;
+    private static final int INFECTED = 4;
+    private static final int CAN_SPREAD = 8;
+    private static final int KILLED = 16;
+    private static final int REPRODUCE = 32; // Phasophyta is mature enough to reproduce
+    private static final int DOOMED = 64; // Chromacystis killed by a Phasophyta this generation
+    private static final int NEW_INFECTION = 128; // infection caught this generation
+
+    // colours a position can show, stored as an index into PALETTE
+    private static final byte MYCOPLASMA_ORANGE = 0;
+    private static final byte CHROMACYSTIS_START = 1;
+    private static final byte CHROMACYSTIS_YELLOW = 2;
+    private static final byte CHROMACYSTIS_BLUE = 3;
+    private static final byte CHROMACYSTIS_GREEN = 4;
+    private static final byte CHROMACYSTIS_RED = 5;
+    private static final byte PHASOPHYTA_START = 6;
+    private static final byte PHASOPHYTA_YOUNG = 7;
+    private static final byte PHASOPHYTA_MATURE = 8;
+    private static final byte PHASOPHYTA_OLD = 9;
+    private static final byte POLYCEPHALUM_START = 10;
+    private static final byte INFECTED_LIGHT = 11;
+    private static final byte INFECTED_DARK = 12;
+
+    private static final int[] PALETTE = {
+        Colors.ORANGE,
+        Colors.rgb(50, 150, 255), Colors.YELLOW, Colors.BLUE, Chromacystis.LIGHT_GREEN, Colors.RED,
+        Simulator.LIGHT_PURPLE, Phasophyta.LIGHT_PURPLE, Phasophyta.PURPLE, Phasophyta.DARK_PURPLE,
+        Simulator.DARK_CYAN,
+        Colors.rgb(160, 160, 160), Colors.rgb(96, 96, 96)
+    };
+
+    // colour of a freshly revived cell of each species
+    private static final byte[] REVIVED_SHADE = {
+        MYCOPLASMA_ORANGE, CHROMACYSTIS_YELLOW, PHASOPHYTA_START, POLYCEPHALUM_START
+    };
+
+    private static final double SPREAD_PROB = 0.15;
+    private static final double CHANGE_COLOUR_PROBABILITY = 0.65;
+
+    // neighbour offsets, listed so that direction d and 7 - d are opposites
+    private static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private final int depth, width;
+    private long seed; // seed of the random decisions
+    private int generation; // generation being run, for the random decisions
+
+    private final byte[] species;
+    private final byte[] flags;
+    private final byte[] infectedDuration;
+    private final byte[] age;
+    private final byte[] shade;
+    // Phasophyta contact with each neighbouring Chromacystis, two bits per direction
+    private final short[] contact;
+    private final int[] population = new int[Species.COUNT]; // living cells of each species
+
+    // bit planes of the living cells of each species, plus one of the
+    // Phasophyta that are mature enough to reproduce
+    private static final int MATURE = Species.COUNT;
+    private final BitBoard board;
+    private final long[][] counts; // neighbour counts for the row being stepped, by plane
+
+    private final int[] order = new int[8]; // scratch space for shuffling directions
+
+    /**
+     * Represent a field of the given dimensions.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public CompactField(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        int size = depth * width;
+        species = new byte[size];
+        flags = new byte[size];
+        infectedDuration = new byte[size];
+        age = new byte[size];
+        shade = new byte[size];
+        contact = new short[size];
+        board = new BitBoard(depth, width, Species.COUNT + 1);
+        counts = new long[Species.COUNT + 1][4 * board.getWordsPerRow()];
+    }
+
+    /**
+     * Empty the field.
+     */
+    public void clear() {
+        for (int i = 0; i < species.length; i++) {
+            species[i] = 0;
+            flags[i] = 0;
+            infectedDuration[i] = 0;
+            age[i] = 0;
+            shade[i] = 0;
+            contact[i] = 0;
+        }
+        board.clear();
+        Arrays.fill(population, 0);
+        generation = 0;
+    }
+
+    /**
+     * Set the seed the random decisions are made from.
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Place a new cell of the given species at a position, as Simulator
+     * does when populating the field.
+     * @param row Row coordinate of the position.
+     * @param col Column coordinate of the position.
+     * @param speciesId The species of the new cell.
+     * @param alive Whether the new cell is alive.
+     * @param infected Whether the new cell is infected.
+     */
+    public void place(int row, int col, int speciesId, boolean alive, boolean infected) {
+        int index = row * width + col;
+        if ((flags[index] & ALIVE) != 0) {
+            population[species[index]]--;
+        }
+        if (alive) {
+            population[speciesId]++;
+        }
+        species[index] = (byte) speciesId;
+        flags[index] = (byte) ((alive ? ALIVE : 0) | (infected ? INFECTED : 0));
+        infectedDuration[index] = 0;
+        age[index] = 0;
+        contact[index] = 0;
+        for (int plane = 0; plane <= MATURE; plane++) {
+            board.set(plane, row, col, false);
+        }
+        board.set(speciesId, row, col, alive);
+        board.setInfected(row, col, infected);
+        if (infected) {
+            shade[index] = INFECTED_LIGHT;
+        }
+        else if (speciesId == Species.CHROMACYSTIS) {
+            shade[index] = CHROMACYSTIS_START;
+        }
+        else {
+            shade[index] = REVIVED_SHADE[speciesId];
+        }
+    }
+
+    /**
+     * Run every position through a single generation.
+     */
+    public void step() {
+        generation++;
+        for (int row = 0; row < depth; row++) {
+            for (int s = 0; s < Species.COUNT; s++) {
+                board.countRow(s, row, counts[s]);
+            }
+            for (int col = 0; col < width; col++) {
+                act(row, col);
+            }
+        }
+        for (int row = 0; row < depth; row++) {
+            board.countRow(Species.MYCOPLASMA, row, counts[Species.MYCOPLASMA]);
+            board.countRow(Species.CHROMACYSTIS, row, counts[Species.CHROMACYSTIS]);
+            board.countRow(MATURE, row, counts[MATURE]);
+            for (int col = 0; col < width; col++) {
+                if ((flags[row * width + col] & ALIVE) == 0) {
+                    revive(row, col);
+                }
+            }
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                commit(row, col);
+            }
+        }
+    }
+
+    /**
+     * Decide the next state of the cell at a position.
+     */
+    private void act(int row, int col) {
+        int index = row * width + col;
+        int s = species[index];
+        if (s == Species.PHASOPHYTA && age[index] < Byte.MAX_VALUE) {
+            age[index]++;
+        }
+        int neighbours = board.getCount(counts[s], col);
+        updateInfectionState(row, col, index);
+
+        if (s == Species.PHASOPHYTA) {
+            updateContact(row, col, index);
+            flags[index] &= ~REPRODUCE;
+        }
+
+        int f = flags[index];
+        if ((f & ALIVE) != 0 && (f & INFECTED) == 0) {
+            switch (s) {
+                case Species.MYCOPLASMA:
+                    setNextState(index, neighbours == 2 || neighbours == 3);
+                    break;
+                case Species.CHROMACYSTIS:
+                    actChromacystis(index, neighbours);
+                    break;
+                case Species.PHASOPHYTA:
+                    actPhasophyta(index, neighbours);
+                    break;
+                case Species.POLYCEPHALUM:
+                    actPolycephalum(index, neighbours);
+                    break;
+            }
+        }
+        else if ((f & ALIVE) == 0 && (f & INFECTED) == 0) {
+            setNextState(index, false);
+        }
+        if (s == Species.PHASOPHYTA) {
+            board.set(MATURE, row, col, (flags[index] & REPRODUCE) != 0);
+        }
+    }
+
+    /**
+     * Chromacystis glows according to its neighbours and survives with 1 to 3 of them.
+     */
+    private void actChromacystis(int index, int neighbours) {
+        if (neighbours == 1) {
+            shade[index] = CHROMACYSTIS_BLUE;
+        }
+        else if (neighbours == 2) {
+            shade[index] = CHROMACYSTIS_GREEN;
+        }
+        else if (neighbours == 3) {
+            shade[index] = CHROMACYSTIS_RED;
+        }
+        setNextState(index, neighbours >= 1 && neighbours <= 3);
+    }
+
+    /**
+     * Phasophyta survival depends on its age.
+     */
+    private void actPhasophyta(int index, int neighbours) {
+        int a = age[index];
+        if (a >= 1 && a <= 4) {
+            shade[index] = PHASOPHYTA_YOUNG;
+            if (neighbours >= 2) {
+                setNextState(index, true);
+            }
+        }
+        else if (a >= 5 && a <= 14) {
+            shade[index] = PHASOPHYTA_MATURE;
+            flags[index] |= REPRODUCE;
+            if (neighbours >= 1) {
+                setNextState(index, true);
+            }
+        }
+        else if (a >= 15 && a <= 20) {
+            shade[index] = PHASOPHYTA_OLD;
+            setNextState(index, true);
+        }
+        else {
+            setNextState(index, false);
+        }
+    }
+
+    /**
+     * Polycephalum survives at random depending on its neighbours.
+     */
+    private void actPolycephalum(int index, int neighbours) {
+        boolean survives;
+        double probability = random(index, Randomizer.SURVIVAL);
+        if (probability <= 0.20) {
+            survives = neighbours == 1;
+        }
+        else if (probability <= 0.50) {
+            survives = neighbours == 2;
+        }
+        else {
+            survives = neighbours == 3;
+        }
+        // a colour change keeps it alive; the cyan it is created with is not one
+        // of the shades Polycephalum.updateColor swaps, so the colour stays put
+        if (random(index, Randomizer.COLOUR_CHANGE) <= CHANGE_COLOUR_PROBABILITY) {
+            survives = true;
+        }
+        setNextState(index, survives);
+    }
+
+    /**
+     * Advance the disease of an infected living cell, as Cell.updateInfectionState does.
+     */
+    private void updateInfectionState(int row, int col, int index) {
+        int f = flags[index];
+        if ((f & INFECTED) == 0 || (f & ALIVE) == 0) {
+            return;
+        }
+        infectedDuration[index]++;
+        if ((f & CAN_SPREAD) != 0) {
+            spreadDisease(row, col, species[index]);
+        }
+        setNextState(index, true);
+
+        int duration = infectedDuration[index];
+        if (duration >= 5 && duration <= 10) {
+            shade[index] = INFECTED_DARK;
+            flags[index] |= CAN_SPREAD;
+        }
+        else if (duration > 10) {
+            flags[index] |= KILLED;
+            setNextState(index, false);
+        }
+    }
+
+    /**
+     * Try to infect each uninfected living neighbour of the same species.
+     */
+    private void spreadDisease(int row, int col, int s) {
+        for (int d = 0; d < 8; d++) {
+            int nextRow = row + ROW_OFFSETS[d];
+            int nextCol = col + COL_OFFSETS[d];
+            if (nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                int neighbour = nextRow * width + nextCol;
+                if (isLivingUninfected(neighbour) && species[neighbour] == s
+                        && random(row * width + col, Randomizer.SPREAD + d) <= SPREAD_PROB) {
+                    flags[neighbour] |= NEW_INFECTION;
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the generations each neighbouring Chromacystis has spent next to
+     * this Phasophyta, killing it once that reaches three.
+     */
+    private void updateContact(int row, int col, int index) {
+        int contacts = contact[index];
+        for (int d = 0; d < 8; d++) {
+            int nextRow = row + ROW_OFFSETS[d];
+            int nextCol = col + COL_OFFSETS[d];
+            if (nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                int neighbour = nextRow * width + nextCol;
+                if (isLivingUninfected(neighbour) && species[neighbour] == Species.CHROMACYSTIS) {
+                    int duration = ((contacts >> (2 * d)) & 3) + 1;
+                    if (duration >= 3) {
+                        age[index] -= 2;
+                        flags[neighbour] |= DOOMED;
+                        duration = 0;
+                    }
+                    contacts = (contacts & ~(3 << (2 * d))) | (duration << (2 * d));
+                }
+            }
+        }
+        contact[index] = (short) contacts;
+    }
+
+    /**
+     * Try to bring the dead cell at a position back to life as the species
+     * of one of its living neighbours, chosen in random order.
+     */
+    private void revive(int row, int col) {
+        int index = row * width + col;
+        int count = 0;
+        for (int d = 0; d < 8; d++) {
+            int nextRow = row + ROW_OFFSETS[d];
+            int nextCol = col + COL_OFFSETS[d];
+            if (nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width
+                    && isLivingUninfected(nextRow * width + nextCol)) {
+                order[count++] = nextRow * width + nextCol;
+            }
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            int pick = Randomizer.nextInt(seed, generation, index, Randomizer.REVIVE_ORDER + i, i + 1);
+            int neighbour = order[pick];
+            order[pick] = order[i];
+
+            int s = species[neighbour];
+            boolean killedAsSame = species[index] == s && (flags[index] & KILLED) != 0;
+            if (!killedAsSame && canRevive(row, col, s)) {
+                species[index] = (byte) s;
+                flags[index] = NEXT_ALIVE;
+                infectedDuration[index] = 0;
+                age[index] = 0;
+                shade[index] = REVIVED_SHADE[s];
+                contact[index] = 0;
+                forgetContact(row, col);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check whether a new cell of the given species could come to life at a position.
+     */
+    private boolean canRevive(int row, int col, int s) {
+        switch (s) {
+            case Species.MYCOPLASMA:
+            case Species.CHROMACYSTIS:
+                return board.getCount(counts[s], col) == 3;
+            case Species.PHASOPHYTA:
+                return board.getCount(counts[MATURE], col) == 2;
+            case Species.POLYCEPHALUM:
+                // Polycephalum.canRevive looks at Mycoplasma neighbours
+                return board.getCount(counts[Species.MYCOPLASMA], col) == 2;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A new occupant has arrived at a position, so neighbouring Phasophyta
+     * start counting their contact with it from zero.
+     */
+    private void forgetContact(int row, int col) {
+        for (int d = 0; d < 8; d++) {
+            int nextRow = row + ROW_OFFSETS[d];
+            int nextCol = col + COL_OFFSETS[d];
+            if (nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                int neighbour = nextRow * width + nextCol;
+                if (species[neighbour] == Species.PHASOPHYTA) {
+                    // the neighbour sees this position in the opposite direction
+                    contact[neighbour] &= ~(3 << (2 * (7 - d)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Make the decisions of this generation visible.
+     */
+    private void commit(int row, int col) {
+        int index = row * width + col;
+        int f = flags[index];
+        if ((f & DOOMED) != 0) {
+            f = (f & ~(DOOMED | NEXT_ALIVE)) | KILLED;
+        }
+        if ((f & NEW_INFECTION) != 0) {
+            f &= ~NEW_INFECTION;
+            if ((f & INFECTED) == 0) {
+                f |= INFECTED;
+                shade[index] = INFECTED_LIGHT;
+            }
+        }
+        if ((f & NEXT_ALIVE) != 0) {
+            if ((f & ALIVE) == 0) {
+                population[species[index]]++;
+            }
+            f |= ALIVE;
+        }
+        else {
+            if ((f & ALIVE) != 0) {
+                population[species[index]]--;
+            }
+            f &= ~ALIVE;
+        }
+        flags[index] = (byte) f;
+        board.set(species[index], row, col, (f & ALIVE) != 0);
+        board.setInfected(row, col, (f & INFECTED) != 0);
+    }
+
+    /**
+     * Return the random number for a decision about a position in this generation.
+     */
+    private double random(int index, int draw) {
+        return Randomizer.nextDouble(seed, generation, index, draw);
+    }
+
+    private void setNextState(int index, boolean value) {
+        if (value) {
+            flags[index] |= NEXT_ALIVE;
+        }
+        else {
+            flags[index] &= ~NEXT_ALIVE;
+        }
+    }
+
+    private boolean isLivingUninfected(int index) {
+        return (flags[index] & (ALIVE | INFECTED)) == ALIVE;
+    }
+
+    /**
+     * @return true if the cell at the given position is alive.
+     */
+    public boolean isAlive(int row, int col) {
+        return (flags[row * width + col] & ALIVE) != 0;
+    }
+
+    /**
+     * @return true if the cell at the given position is infected.
+     */
+    public boolean isInfected(int row, int col) {
+        return (flags[row * width + col] & INFECTED) != 0;
+    }
+
+    /**
+     * @return The species id of the cell at the given position.
+     */
+    public int getSpecies(int row, int col) {
+        return species[row * width + col];
+    }
+
+    /**
+     * @return The colour of the cell at the given position, packed as 0xRRGGBB.
+     */
+    public int getColor(int row, int col) {
+        return PALETTE[shade[row * width + col]];
+    }
+
+    /**
+     * Count the living cells of one species.
+     * @param speciesId The species to count.
+     * @return The number of living cells of that species.
+     */
+    public int getPopulation(int speciesId) {
+        return population[speciesId];
+    }
+
+    /**
+     * Return the depth of the field.
+     * @return The depth of the field.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the width of the field.
+     * @return The width of the field.
+     */
+    public int getWidth() {
+        return width;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Notices when a simulation has settled into a cycle: a still life, or an
+ * oscillator that shows the same living cells every so many generations.
+ * Such a run will never do anything new, so a batch run can stop it or
+ * skip the rest of its generations (see Simulator.skipGenerations).
+ *
+ * The detector keeps the state hash of the field (see Field.getStateHash)
+ * for each of the last few generations. When the hash of a generation is
+ * one seen in the window, the field may have come back to an earlier
+ * state; the distance between the two is the period.
+ *
+ * The hash only covers which species is alive where. A field can look the
+ * same for a while and still be about to change: an infected cell dies
+ * once its disease has run its course, a Phasophyta dies of old age, and
+ * a Polycephalum only survives at random, so a cycle is only reported
+ * while no living cell is volatile (see Cell.isVolatile). A dead
+ * Phasophyta can still kill a Chromacystis it has been next to for a few
+ * generations, so the cycle must also have repeated for CONFIRM_PERIODS
+ * whole periods and for longer than that. It has to be added to a
+ * simulator as a GenerationListener.
+ */
+
+public class CycleDetector implements GenerationListener {
+    private static final int CONFIRM_PERIODS = 2; // whole periods that must repeat before a cycle is reported
+    private static final int CONFIRM_GENERATIONS = 8; // longer than a Phasophyta takes to kill a Chromacystis
+
+    private final long[] hashes; // state hash of the last generations, oldest overwritten first
+    private final int[] generations; // the generation of each hash
+    private int size; // hashes in the window
+    private int next; // where the next hash goes
+    private int lastGeneration = -1;
+    private int period; // period of the repetition being watched, or 0
+    private int start; // first generation of the repetition
+    private int repeated; // generations in a row that repeated with the period
+    private boolean settled; // whether the repetition is long enough and no living cell is volatile
+
+    /**
+     * Create a detector that can find cycles of up to the given period.
+     * @param window The number of recent generations remembered, at least 1.
+     */
+    public CycleDetector(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must hold at least one generation");
+        }
+        hashes = new long[window];
+        generations = new int[window];
+    }
+
+    /**
+     * Compare the new generation with the ones in the window.
+     * @param simulator The simulator being run.
+     */
+    public void generationFinished(Simulator simulator) {
+        int generation = simulator.getGeneration();
+        long hash = simulator.getStateHash();
+        if (generation <= lastGeneration) {
+            reset(); // the simulator was reset or restored
+        }
+        int match = find(hash);
+        if (match < 0) {
+            period = 0;
+            repeated = 0;
+        }
+        else if (period > 0 && (generation - match) % period == 0) {
+            // still repeating; after a jump the match may be several periods back
+            repeated += generation - lastGeneration;
+        }
+        else {
+            period = generation - match;
+            start = match;
+            repeated = 1;
+        }
+        add(generation, hash);
+        lastGeneration = generation;
+        settled = period > 0 && repeated >= Math.max(CONFIRM_PERIODS * period, CONFIRM_GENERATIONS)
+            && !hasVolatileCells(simulator.getField());
+    }
+
+    /**
+     * @return true if the field is in a cycle.
+     */
+    public boolean isCycling() {
+        return settled;
+    }
+
+    /**
+     * @return The period of the cycle, 1 for a still life, or 0 if the
+     *         field is not in a cycle.
+     */
+    public int getPeriod() {
+        return isCycling() ? period : 0;
+    }
+
+    /**
+     * @return The first generation of the cycle, or -1 if the field is not in a cycle.
+     */
+    public int getCycleStart() {
+        return isCycling() ? start : -1;
+    }
+
+    /**
+     * Forget every generation seen.
+     */
+    public void reset() {
+        size = 0;
+        next = 0;
+        lastGeneration = -1;
+        period = 0;
+        repeated = 0;
+        settled = false;
+    }
+
+    /**
+     * @return true if a living cell of the field may change by itself.
+     */
+    private static boolean hasVolatileCells(Field field) {
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell.isAlive() && cell.isVolatile()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The latest generation in the window with the given hash, or -1 if none.
+     */
+    private int find(long hash) {
+        for (int i = 1; i <= size; i++) {
+            int slot = (next - i + hashes.length) % hashes.length;
+            if (hashes[slot] == hash) {
+                return generations[slot];
+            }
+        }
+        return -1;
+    }
+
+    private void add(int generation, long hash) {
+        hashes[next] = hash;
+        generations[next] = generation;
+        next = (next + 1) % hashes.length;
+        size = Math.min(size + 1, hashes.length);
+    }
+}
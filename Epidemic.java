@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Runs the disease through a field. Only a small share of the cells is
+ * infected at any time, so instead of every cell checking its own infection
+ * as it acts, the infected cells are kept in a list, the frontier of the
+ * disease, and only they are visited each generation to spread the disease,
+ * turn grey and die.
+ *
+ * As in CompactField, infections caught during a generation only take
+ * effect when the generation is committed. The order the infected cells are
+ * visited in therefore does not matter, and every cell acting in a
+ * generation sees the infections as they were at its start.
+ */
+
+public class Epidemic {
+    private final List<Cell> infected = new ArrayList<>(); // infected cells, alive at the last commit
+    private final List<Cell> caught = new ArrayList<>(); // cells infected this generation, possibly more than once
+    private int livingCount; // living infected cells after the last commit
+    private int newInfections; // infections that took effect at the last commit
+    private int deaths; // cells killed by the disease at the last commit
+
+    /**
+     * Forget every infection, e.g. when the field is emptied.
+     */
+    public void clear() {
+        infected.clear();
+        caught.clear();
+        livingCount = 0;
+        newInfections = 0;
+        deaths = 0;
+    }
+
+    /**
+     * Add a cell that has just been infected to the frontier.
+     * @param cell The infected cell.
+     */
+    void add(Cell cell) {
+        infected.add(cell);
+        if (cell.isAlive()) {
+            livingCount++;
+        }
+    }
+
+    /**
+     * Record that a cell caught the disease in this generation. It becomes
+     * infected when the generation is committed.
+     * @param cell The cell that caught the disease.
+     */
+    void infect(Cell cell) {
+        caught.add(cell);
+    }
+
+    /**
+     * Take out the cells that caught the disease in this generation and
+     * match a filter, e.g. the ghost copies of another shard's cells, whose
+     * infections have to be passed on to that shard.
+     * @param filter Chooses the cells to take out.
+     * @return The cells taken out.
+     */
+    List<Cell> takeCaught(Predicate<Cell> filter) {
+        List<Cell> taken = new ArrayList<>();
+        caught.removeIf(cell -> filter.test(cell) && taken.add(cell));
+        return taken;
+    }
+
+    /**
+     * Advance the disease of every infected cell by a generation. This is
+     * run before the cells act.
+     */
+    public void step() {
+        for (int i = 0; i < infected.size(); i++) {
+            infected.get(i).updateInfectionState();
+        }
+    }
+
+    /**
+     * Drop the cells that died from the frontier and infect the cells that
+     * caught the disease. This is run once every cell has updated its state.
+     * @param tiles The tiles being stepped, or null if every cell is stepped.
+     */
+    public void commit(ActiveTiles tiles) {
+        int kept = 0;
+        deaths = 0;
+        for (Cell cell : infected) {
+            if (cell.isAlive()) {
+                infected.set(kept++, cell);
+            }
+            else if (cell.getKilled()) {
+                deaths++;
+            }
+        }
+        infected.subList(kept, infected.size()).clear();
+        livingCount = kept;
+
+        newInfections = 0;
+        for (Cell cell : caught) {
+            if (!cell.isInfected()) {
+                cell.setInfected(); // adds it to the frontier
+                newInfections++;
+                if (tiles != null) {
+                    // its neighbours no longer count it
+                    tiles.markChanged(cell.getLocation().getRow(), cell.getLocation().getCol());
+                }
+            }
+        }
+        caught.clear();
+        Metrics.countInfections(newInfections);
+    }
+
+    /**
+     * @return The number of living infected cells.
+     */
+    public int getInfectedCount() {
+        return livingCount;
+    }
+
+    /**
+     * @return The number of cells infected in the last generation.
+     */
+    public int getNewInfections() {
+        return newInfections;
+    }
+
+    /**
+     * @return The number of cells the disease killed in the last generation.
+     */
+    public int getDeaths() {
+        return deaths;
+    }
+}
@@ -13,14 +13,48 @@ import javax.swing.RowFilter;
  * Represent a rectangular grid of field positions.
  * Each position stores a single cell
  *
+ * What lies beyond the edges depends on the boundary mode: nothing
+ * (CLIPPED), the opposite edge (TOROIDAL), or nothing with the outermost
+ * ring of positions held dead (DEAD_BORDER). The grid is stored with a ring
+ * of ghost positions around it, which stay empty or, on a torus, hold the
+ * cells of the opposite edge, so looking up a neighbour never has to check
+ * the bounds.
+ *
  * @author David J. Barnes, Michael Kölling & Jeffery Raphael
  * @version 2022.01.06
  */
 
 public class Field {
+    public static final int NEIGHBOURHOOD_SIZE = 8;
+    // rows sharing one set of population counters; threads that update
+    // different stripes never touch the same counter
+    public static final int STRIPE_ROWS = 8;
+
+    // neighbour offsets, listed so that direction d and 7 - d are opposites
+    private static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    // boundary modes
+    public static final int CLIPPED = 0; // there is nothing beyond the edges
+    public static final int TOROIDAL = 1; // each edge wraps around to the opposite one
+    public static final int DEAD_BORDER = 2; // as CLIPPED, and the positions on the edges never come to life
+    private static final String[] BOUNDARY_NAMES = {"clipped", "toroidal", "dead"};
+
     private static final Random rand = Randomizer.getRandom();
     private int depth, width;
-    private Cell[][] field;
+    private int stride; // width of a padded row
+    private Cell[] grid; // the cells, padded with a ring of ghost positions
+    private int[] offsets; // distance in the grid to the neighbour in each direction
+    private int[] wrapRow, wrapCol; // the position each padded row and column shows, or -1 if none
+    private int boundary = CLIPPED;
+    private int rowOffset; // row of the whole field that row 0 is, when this field is one shard of it
+    private int[][] population; // living cells of each species, by stripe of rows
+    private long[] hashes; // Zobrist hash of the living cells, by stripe of rows
+    private ChangeMap changes; // positions that look different since the view last drew them
+    private ChangeMap[] changeMaps; // every map the changes are recorded in, starting with changes
+    private Epidemic epidemic; // the infected cells
+    private long seed; // seed of the random decisions made by the cells
+    private int generation; // generation being run, for the random decisions
 
     /**
      * Represent a field of the given dimensions.
@@ -30,18 +64,33 @@ public class Field {
     public Field(int depth, int width) {
         this.depth = depth;
         this.width = width;
-        field = new Cell[depth][width];
+        stride = width + 2;
+        grid = new Cell[(depth + 2) * stride];
+        offsets = new int[NEIGHBOURHOOD_SIZE];
+        for (int d = 0; d < NEIGHBOURHOOD_SIZE; d++) {
+            offsets[d] = ROW_OFFSETS[d] * stride + COL_OFFSETS[d];
+        }
+        setBoundary(CLIPPED);
+        population = new int[(depth + STRIPE_ROWS - 1) / STRIPE_ROWS][Species.getCount()];
+        hashes = new long[population.length];
+        changes = new ChangeMap(depth, width);
+        changeMaps = new ChangeMap[] {changes};
+        epidemic = new Epidemic();
     }
 
     /**
      * Empty the field.
      */
     public void clear() {
-        for (int row = 0; row < depth; row++) {
-            for (int col = 0; col < width; col++) {
-                field[row][col] = null;
-            }
+        Arrays.fill(grid, null);
+        for (int[] stripe : population) {
+            Arrays.fill(stripe, 0);
+        }
+        Arrays.fill(hashes, 0);
+        for (ChangeMap map : changeMaps) {
+            map.markAll();
         }
+        epidemic.clear();
     }
 
     /**
@@ -49,7 +98,7 @@ public class Field {
      * @param location The location to clear.
      */
     public void clear(Location location) {
-        field[location.getRow()][location.getCol()] = null;
+        place(null, location);
     }
 
     /**
@@ -70,7 +119,332 @@ public class Field {
      * @param location Where to place the cell.
      */
     public void place(Cell cell, Location location) {
-        field[location.getRow()][location.getCol()] = cell;
+        int row = location.getRow();
+        int col = location.getCol();
+        if (row < 0 || row >= depth) {
+            placeGhost(cell, row, col);
+            return;
+        }
+        Cell old = grid[index(row, col)];
+        if (old != null && old.isAlive()) {
+            updatePopulation(old, -1);
+        }
+        grid[index(row, col)] = cell;
+        if (boundary == TOROIDAL && (row == 0 || row == depth - 1 || col == 0 || col == width - 1)) {
+            updateGhosts(row, col);
+        }
+        if (cell != null && cell.isAlive()) {
+            updatePopulation(cell, 1);
+        }
+        if (old != cell) {
+            for (int d = 0; d < NEIGHBOURHOOD_SIZE; d++) {
+                Cell neighbour = getNeighbour(location, d);
+                if (neighbour != null) {
+                    neighbour.neighbourReplaced(NEIGHBOURHOOD_SIZE - 1 - d); // it sees this position in the opposite direction
+                }
+            }
+        }
+        markChanged(row, col);
+    }
+
+    /**
+     * Put a cell in the ghost row above (row -1) or below (row depth) the
+     * field, as the copy of a cell that another shard owns (see Halo). It
+     * is seen by its neighbours in the field but not counted in the
+     * population.
+     */
+    private void placeGhost(Cell cell, int row, int col) {
+        int position = index(row, col);
+        Cell old = grid[position];
+        grid[position] = cell;
+        if (old != cell) {
+            for (int d = 0; d < NEIGHBOURHOOD_SIZE; d++) {
+                int nextRow = row + ROW_OFFSETS[d];
+                if (nextRow >= 0 && nextRow < depth) {
+                    Cell neighbour = grid[position + offsets[d]];
+                    if (neighbour != null) {
+                        neighbour.neighbourReplaced(NEIGHBOURHOOD_SIZE - 1 - d);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the cell at an edge position into the ghost positions that show
+     * it on the other side of the field.
+     */
+    private void updateGhosts(int row, int col) {
+        Cell cell = grid[index(row, col)];
+        int[] rows = {0, row + 1, depth + 1};
+        int[] cols = {0, col + 1, width + 1};
+        for (int r : rows) {
+            for (int c : cols) {
+                if (wrapRow[r] == row && wrapCol[c] == col) {
+                    grid[r * stride + c] = cell;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return where a position is kept in the padded grid.
+     */
+    private int index(int row, int col) {
+        return (row + 1) * stride + col + 1;
+    }
+
+    /**
+     * Choose what lies beyond the edges of the field. The cells already in
+     * the field stay where they are.
+     * @param boundary CLIPPED, TOROIDAL or DEAD_BORDER.
+     */
+    public void setBoundary(int boundary) {
+        if (boundary < CLIPPED || boundary > DEAD_BORDER) {
+            throw new IllegalArgumentException("Unknown boundary mode " + boundary);
+        }
+        this.boundary = boundary;
+        wrapRow = wrapTable(depth, boundary == TOROIDAL);
+        wrapCol = wrapTable(width, boundary == TOROIDAL);
+        for (int r = 0; r < depth + 2; r++) {
+            for (int c = 0; c < stride; c++) {
+                if (r == 0 || r == depth + 1 || c == 0 || c == width + 1) {
+                    grid[r * stride + c] = wrapRow[r] < 0 || wrapCol[c] < 0 ? null
+                        : grid[index(wrapRow[r], wrapCol[c])];
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the position shown by each padded row (or column) of a
+     * dimension of the given size.
+     */
+    private static int[] wrapTable(int size, boolean wrap) {
+        int[] table = new int[size + 2];
+        for (int i = 0; i < size; i++) {
+            table[i + 1] = i;
+        }
+        table[0] = wrap ? size - 1 : -1;
+        table[size + 1] = wrap ? 0 : -1;
+        return table;
+    }
+
+    /**
+     * @return The boundary mode: CLIPPED, TOROIDAL or DEAD_BORDER.
+     */
+    public int getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Check whether a position has to stay dead, because it is on the edge
+     * of a field with a DEAD_BORDER.
+     * @param location The position.
+     * @return true if nothing may come to life there.
+     */
+    public boolean isDeadBorder(Location location) {
+        int row = location.getRow();
+        int col = location.getCol();
+        return boundary == DEAD_BORDER && (row == 0 || row == depth - 1 || col == 0 || col == width - 1);
+    }
+
+    /**
+     * Return the boundary mode with the given name, as used on the command line.
+     * @param name "clipped", "toroidal" or "dead".
+     * @return The boundary mode.
+     */
+    public static int parseBoundary(String name) {
+        for (int boundary = 0; boundary < BOUNDARY_NAMES.length; boundary++) {
+            if (BOUNDARY_NAMES[boundary].equals(name)) {
+                return boundary;
+            }
+        }
+        throw new IllegalArgumentException("Unknown boundary mode " + name
+            + "; expected clipped, toroidal or dead");
+    }
+
+    /**
+     * @param boundary A boundary mode.
+     * @return Its name, as accepted by parseBoundary.
+     */
+    public static String getBoundaryName(int boundary) {
+        return BOUNDARY_NAMES[boundary];
+    }
+
+    /**
+     * Record that the position at (row, col) changed in a way that shows.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     */
+    void markChanged(int row, int col) {
+        if (row < 0 || row >= depth) {
+            return; // a ghost, which another shard shows
+        }
+        for (ChangeMap map : changeMaps) {
+            map.mark(row, col);
+        }
+    }
+
+    /**
+     * Record that a cell in the field came to life or died.
+     * @param cell The cell that changed.
+     * @param change 1 if it came to life, -1 if it died.
+     */
+    void updatePopulation(Cell cell, int change) {
+        int species = Species.of(cell);
+        if (species >= 0) {
+            Location location = cell.getLocation();
+            int stripe = location.getRow() / STRIPE_ROWS;
+            population[stripe][species] += change;
+            // a cell is hashed in when it comes to life and out when it dies
+            hashes[stripe] ^= Randomizer.zobristKey((location.getRow() + rowOffset) * width + location.getCol(),
+                species);
+        }
+    }
+
+    /**
+     * Return a hash of which species is alive at each position. It is kept
+     * up to date as cells come to life and die, so asking costs nothing
+     * like looking at every cell, and two fields with the same living
+     * cells have the same hash.
+     * @return The hash of the living cells.
+     */
+    public long getStateHash() {
+        long hash = 0;
+        for (long stripe : hashes) {
+            hash ^= stripe;
+        }
+        return hash;
+    }
+
+    /**
+     * Set the seed the cells' random decisions are made from.
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return The seed the cells' random decisions are made from.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Make this field one shard of a larger field, starting at the given
+     * row of it, so the cells make the same random decisions as they would
+     * in the whole field.
+     * @param rowOffset The row of the whole field that is this field's row 0.
+     */
+    public void setRowOffset(int rowOffset) {
+        this.rowOffset = rowOffset;
+    }
+
+    /**
+     * @return The row of the whole field that is this field's row 0.
+     */
+    public int getRowOffset() {
+        return rowOffset;
+    }
+
+    /**
+     * Set the generation being run, so each generation's random decisions
+     * are different.
+     * @param generation The generation.
+     */
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * @return The generation being run.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Return a random number between 0 and 1 for a decision about a
+     * position in the current generation. Asking again for the same
+     * decision gives the same number.
+     * @param location The position.
+     * @param draw The draw number of the decision, see Randomizer.
+     * @return The random number.
+     */
+    public double random(Location location, int draw) {
+        return Randomizer.nextDouble(seed, generation, (location.getRow() + rowOffset) * width + location.getCol(),
+            draw);
+    }
+
+    /**
+     * Return a random number between 0 and bound for a decision about a
+     * position in the current generation. Asking again for the same
+     * decision gives the same number.
+     * @param location The position.
+     * @param draw The draw number of the decision, see Randomizer.
+     * @param bound The upper bound (exclusive).
+     * @return The random number.
+     */
+    public int random(Location location, int draw, int bound) {
+        return Randomizer.nextInt(seed, generation, (location.getRow() + rowOffset) * width + location.getCol(),
+            draw, bound);
+    }
+
+    /**
+     * Return the positions that changed their appearance (came to life,
+     * died, changed colour or got a new cell) since the map was last cleared.
+     * @return The map of changed positions.
+     */
+    public ChangeMap getChanges() {
+        return changes;
+    }
+
+    /**
+     * Record changes in another map as well, for something other than the
+     * view that needs to know what changed, at its own pace. Only call this
+     * between generations.
+     * @param map A map the size of the field.
+     */
+    public void addChangeMap(ChangeMap map) {
+        changeMaps = Arrays.copyOf(changeMaps, changeMaps.length + 1);
+        changeMaps[changeMaps.length - 1] = map;
+    }
+
+    /**
+     * Stop recording changes in a map added with addChangeMap.
+     * @param map The map.
+     */
+    public void removeChangeMap(ChangeMap map) {
+        List<ChangeMap> maps = new ArrayList<>(Arrays.asList(changeMaps));
+        maps.remove(map);
+        changeMaps = maps.toArray(new ChangeMap[0]);
+    }
+
+    /**
+     * Return the disease running through the field, which keeps track of
+     * the infected cells.
+     * @return The field's epidemic.
+     */
+    public Epidemic getEpidemic() {
+        return epidemic;
+    }
+
+    /**
+     * Return the number of living cells of a species. The counts are kept
+     * up to date as cells come to life and die, so this does not look at
+     * the cells themselves.
+     * @param species The species id.
+     * @return The number of living cells of that species.
+     */
+    public int getPopulation(int species) {
+        int count = 0;
+        for (int[] stripe : population) {
+            count += stripe[species];
+        }
+        return count;
     }
 
     /**
@@ -83,13 +457,14 @@ public class Field {
     }
 
     /**
-     * Return the cell at the given location, if any.
+     * Return the cell at the given location, if any. Rows -1 and depth are
+     * the ghost rows, which only hold cells in a shard of a larger field.
      * @param row The desired row.
      * @param col The desired column.
      * @return The cell at the given location, or null if there is none.
      */
     public Cell getObjectAt(int row, int col) {
-        return field[row][col];
+        return grid[index(row, col)];
     }
 
     /**
@@ -108,7 +483,8 @@ public class Field {
     /**
      * Return a shuffled list of locations adjacent to the given one.
      * The list will not include the location itself.
-     * All locations will lie within the grid.
+     * All locations will lie within the grid; on a torus the locations
+     * past an edge are those on the opposite edge.
      * @param location The location from which to generate adjacencies.
      * @return A list of locations adjacent to that given.
      */
@@ -117,18 +493,14 @@ public class Field {
         // The list of locations to be returned.
         List<Location> locations = new LinkedList<>();
         if (location != null) {
-            int row = location.getRow();
-            int col = location.getCol();
-            for (int roffset = -1; roffset <= 1; roffset++) {
-                int nextRow = row + roffset;
-                if (nextRow >= 0 && nextRow < depth) {
-                    for (int coffset = -1; coffset <= 1; coffset++) {
-                        int nextCol = col + coffset;
-                        // Exclude invalid locations and the original location.
-                        if (nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
+            int row = location.getRow() + 1; // in padded coordinates
+            int col = location.getCol() + 1;
+            for (int d = 0; d < NEIGHBOURHOOD_SIZE; d++) {
+                int nextRow = wrapRow[row + ROW_OFFSETS[d]];
+                int nextCol = wrapCol[col + COL_OFFSETS[d]];
+                // Exclude positions beyond the edges.
+                if (nextRow >= 0 && nextCol >= 0) {
+                    locations.add(new Location(nextRow, nextCol));
                 }
             }
 
@@ -145,7 +517,7 @@ public class Field {
      * @param cell Type of cell to include in the list
      * @return A list of living neighbours
      */
-    public List<Cell> getLivingNeighbours(Location location, Class cellType) {
+    public List<Cell> getLivingNeighbours(Location location, Class<? extends Cell> cellType) {
       assert location != null : "Null location passed to adjacentLocations";
       List<Cell> neighbours = new LinkedList<>();
 
@@ -153,7 +525,7 @@ public class Field {
         List<Location> adjLocations = adjacentLocations(location);
 
         for (Location loc : adjLocations) {
-          Cell cell = field[loc.getRow()][loc.getCol()];
+          Cell cell = getObjectAt(loc);
           if (cell.isAlive() && (cell.getClass() == cellType) && !cell.isInfected()) {neighbours.add(cell);}
         }
         Collections.shuffle(neighbours, rand);
@@ -174,7 +546,7 @@ public class Field {
         List<Location> adjLocations = adjacentLocations(location);
 
         for (Location loc : adjLocations) {
-          Cell cell = field[loc.getRow()][loc.getCol()];
+          Cell cell = getObjectAt(loc);
           if (cell.isAlive() && !cell.isInfected()) {neighbours.add(cell);}
         }
         Collections.shuffle(neighbours, rand);
@@ -182,6 +554,58 @@ public class Field {
       return neighbours;
     }
 
+    /**
+     * Return the neighbour of a location in the given direction.
+     * Unlike adjacentLocations this allocates nothing, so it can be used
+     * to walk the neighbourhood of a cell in the inner loop.
+     * @param location The location whose neighbour is wanted.
+     * @param direction A direction from 0 to NEIGHBOURHOOD_SIZE - 1.
+     * @return The neighbouring cell, or null if that position is beyond
+     *         the edge of a field that does not wrap, or empty.
+     */
+    public Cell getNeighbour(Location location, int direction) {
+        return grid[index(location.getRow(), location.getCol()) + offsets[direction]];
+    }
+
+    /**
+     * Count the uninfected living neighbours of a specified species.
+     * @param location Count the cells adjacent to this.
+     * @param species Species of cell to count.
+     * @return The number of living neighbours of that species.
+     */
+    public int countLivingNeighbours(Location location, Species species) {
+        int position = index(location.getRow(), location.getCol());
+        int count = 0;
+        for (int d = 0; d < NEIGHBOURHOOD_SIZE; d++) {
+            Cell cell = grid[position + offsets[d]];
+            if (cell != null && cell.getSpecies() == species && cell.isAlive() && !cell.isInfected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collect the uninfected living neighbours of a location into an array.
+     * The neighbours are not shuffled; callers that need a random order
+     * should shuffle the filled part of the array themselves.
+     * @param location Get the cells adjacent to this.
+     * @param neighbours Receives the neighbours. Must have room for
+     *                   NEIGHBOURHOOD_SIZE cells.
+     * @return The number of neighbours stored in the array.
+     */
+    public int getLivingNeighbours(Location location, Cell[] neighbours) {
+        int position = index(location.getRow(), location.getCol());
+        int count = 0;
+        for (int d = 0; d < NEIGHBOURHOOD_SIZE; d++) {
+            Cell cell = grid[position + offsets[d]];
+            if (cell != null && cell.isAlive() && !cell.isInfected()) {
+                neighbours[count++] = cell;
+            }
+        }
+        return count;
+    }
+
     /**
      * Return the depth of the field.
      * @return The depth of the field.
@@ -2,10 +2,17 @@
 
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color; 
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.util.Arrays;
 
 /**
  * Provide a graphical view of the field. This is a custom node for the user interface. 
+ * The colour of every pixel is worked out in an int array, which is copied
+ * into an image a rectangle at a time, so only the parts of the field that
+ * changed need to be drawn again. The image is never larger than the
+ * canvas: a grid larger than the canvas is shown a pixel per sampled
+ * position.
  *
  * @author Jeffery Raphael
  * @version 2024.02.03
@@ -13,9 +20,13 @@ import javafx.scene.paint.Color;
 
 public class FieldCanvas extends Canvas {
 
-    private static final int GRID_VIEW_SCALING_FACTOR = 6;
     private int width, height;
-    private int xScale, yScale;
+    private int xScale, yScale; // pixels per position, or 0 where the grid is larger than the canvas
+    private int gridWidth, gridHeight;
+    private int imageWidth, imageHeight;
+    private int[] colOf, rowOf; // the position each column and row of pixels shows, or -1 for a gap
+    private int[] pixels; // ARGB colour of every pixel of the image, row by row
+    private WritableImage image;
     GraphicsContext gc;
     
     /**
@@ -28,22 +39,107 @@ public class FieldCanvas extends Canvas {
         this.width = width;
     }
     
+    /**
+    * Choose how the positions of a grid are laid out on the canvas. Each
+    * position gets as many whole pixels as fit; where the grid is larger
+    * than the canvas, each pixel shows one of the positions it covers
+    * instead, so the image is never larger than the canvas.
+    * @param gridHeight The depth of the grid.
+    * @param gridWidth The width of the grid.
+    */
     public void setScale(int gridHeight, int gridWidth) {
         xScale = width / gridWidth;
         yScale = height / gridHeight;
-    
-        if (xScale < 1)
-            xScale = GRID_VIEW_SCALING_FACTOR;
-    
-        if (yScale < 1)
-            yScale = GRID_VIEW_SCALING_FACTOR;
+        imageWidth = xScale > 0 ? gridWidth * xScale : width;
+        imageHeight = yScale > 0 ? gridHeight * yScale : height;
+        colOf = layOut(gridWidth, xScale, imageWidth);
+        rowOf = layOut(gridHeight, yScale, imageHeight);
+
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        pixels = new int[imageWidth * imageHeight];
+        image = new WritableImage(imageWidth, imageHeight);
+        gc.clearRect(0, 0, width, height); // a larger grid shown before may stick out
+    }
+
+    /**
+    * Work out which position each pixel along one side of the image shows.
+    * Each position is a mark of scale pixels with a one pixel gap after it
+    * when the scale leaves room for one; with a scale of 0 the positions
+    * are sampled evenly.
+    */
+    private static int[] layOut(int positions, int scale, int pixels) {
+        int[] positionOf = new int[pixels];
+        for (int p = 0; p < pixels; p++) {
+            if (scale == 0) {
+                positionOf[p] = (int) ((long) p * positions / pixels);
+            }
+            else {
+                positionOf[p] = scale > 1 && p % scale == scale - 1 ? -1 : p / scale;
+            }
+        }
+        return positionOf;
     }
-  
+
+    /**
+    * @return The first pixel along one side of the image that shows the
+    *         given position or one after it.
+    */
+    private static int firstPixel(int position, int positions, int scale, int pixels) {
+        if (scale > 0) {
+            return position * scale;
+        }
+        return (int) (((long) position * pixels + positions - 1) / positions);
+    }
+
+    /**
+    * Paint the whole field.
+    * @param colors The colour of each position, row by row, packed as 0xRRGGBB.
+    */
+    public void drawField(int[] colors) {
+        drawRegion(colors, 0, 0, gridHeight, gridWidth);
+    }
+
     /**
-    * Paint a rectangle of the given color on the canvas
+    * Paint a rectangle of positions. Each position becomes a rectangle of its
+    * colour, with a one pixel gap (left transparent) below and to the right
+    * of it when the scale leaves room for one.
+    * @param colors The colour of each position of the field, row by row,
+    *               packed as 0xRRGGBB.
+    * @param row The top row to paint.
+    * @param col The left column to paint.
+    * @param rows The number of rows to paint.
+    * @param cols The number of columns to paint.
     */
-    public void drawMark(int x, int y, Color color) {
-        gc.setFill(color);
-        gc.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
+    public void drawRegion(int[] colors, int row, int col, int rows, int cols) {
+        int x = firstPixel(col, gridWidth, xScale, imageWidth);
+        int y = firstPixel(row, gridHeight, yScale, imageHeight);
+        int w = firstPixel(col + cols, gridWidth, xScale, imageWidth) - x;
+        int h = firstPixel(row + rows, gridHeight, yScale, imageHeight) - y;
+        if (w <= 0 || h <= 0) {
+            return; // none of the positions has a pixel of its own
+        }
+        for (int py = y; py < y + h; py++) {
+            int start = py * imageWidth + x;
+            int rowShown = rowOf[py];
+            if (py > y && rowShown == rowOf[py - 1]) {
+                // the same positions as the pixel row above
+                System.arraycopy(pixels, start - imageWidth, pixels, start, w);
+            }
+            else if (rowShown < 0) {
+                Arrays.fill(pixels, start, start + w, 0);
+            }
+            else {
+                int rowStart = rowShown * gridWidth;
+                for (int px = x; px < x + w; px++) {
+                    int colShown = colOf[px];
+                    pixels[py * imageWidth + px] = colShown < 0 ? 0 : 0xFF000000 | colors[rowStart + colShown];
+                }
+            }
+        }
+        image.getPixelWriter().setPixels(x, y, w, h, PixelFormat.getIntArgbInstance(),
+            pixels, y * imageWidth + x, imageWidth);
+        gc.clearRect(x, y, w, h);
+        gc.drawImage(image, x, y, w, h, x, y, w, h);
     }
 }
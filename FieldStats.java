@@ -1,11 +1,10 @@
  
 
-import java.util.HashMap;
-
 /**
  * This class collects and provides some statistical data on the state
- * of a field. It is flexible: it will create and maintain a counter
- * for any class of object that is found within the field.
+ * of a field. It keeps a counter for each species, filled in from the
+ * population counts the field maintains as cells come to life and die,
+ * so no cells have to be looked at.
  *
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
@@ -13,15 +12,18 @@ import java.util.HashMap;
 
 public class FieldStats {
     
-    private HashMap<Class, Counter> counters;
+    private Counter[] counters;
     private boolean countsValid;
 
     /**
-     * Construct a FieldStats object.  Set up a collection for counters for
-     * each type of cell that we might find
+     * Construct a FieldStats object.  Set up a counter for each species
+     * of cell.
      */
     public FieldStats() {
-        counters = new HashMap<>();
+        counters = new Counter[Species.getCount()];
+        for (int species = 0; species < Species.getCount(); species++) {
+            counters[species] = new Counter(Species.getName(species));
+        }
         countsValid = true;
     }
 
@@ -30,12 +32,20 @@ public class FieldStats {
      * @return A string describing what is in the field.
      */
     public String getPopulationDetails(Field field) {
-        StringBuffer buffer = new StringBuffer();
         if (!countsValid) {
             generateCounts(field);
         }
-        for (Class key : counters.keySet()) {
-            Counter info = counters.get(key);
+        return getPopulationDetails();
+    }
+
+    /**
+     * Get details of the counts as they are, e.g. after adding up the
+     * shards of a field with addCounts.
+     * @return A string describing the counts.
+     */
+    public String getPopulationDetails() {
+        StringBuffer buffer = new StringBuffer();
+        for (Counter info : counters) {
             buffer.append(info.getName());
             buffer.append(": ");
             buffer.append(info.getCount());
@@ -50,46 +60,31 @@ public class FieldStats {
      */
     public void reset() {
         countsValid = false;
-        for (Class key : counters.keySet()) {
-            Counter count = counters.get(key);
+        for (Counter count : counters) {
             count.reset();
         }
     }
 
-    /**
-     * Increment the count for one class of life
-     * @param cellClass The class of cell to increment.
-     */
-    public void incrementCount(Class cellClass) {
-        Counter count = counters.get(cellClass);
-
-        if (count == null) {
-            // We do not have a counter for this species yet. Create one.
-            count = new Counter(cellClass.getName());
-            counters.put(cellClass, count);
-        }
-        count.increment();
-    }
-
-    /**
-     * Indicate that a cell count has been completed.
-     */
-    public void countFinished() {
-        countsValid = true;
-    }
-
     /**
      * Determine whether the simulation is still viable.
      * I.e., should it continue to run.
      * @return true If there is more than one life form alive
      */
     public boolean isViable(Field field) {
-        int nonZero = 0;
         if (!countsValid) {
             generateCounts(field);
         }
-        for (Class key : counters.keySet()) {
-            Counter info = counters.get(key);
+        return isViable();
+    }
+
+    /**
+     * Determine whether the simulation is still viable from the counts as
+     * they are, e.g. after adding up the shards of a field with addCounts.
+     * @return true If there is more than one life form alive
+     */
+    public boolean isViable() {
+        int nonZero = 0;
+        for (Counter info : counters) {
             if (info.getCount() > 0) {
                 nonZero++;
             }
@@ -99,20 +94,26 @@ public class FieldStats {
     }
 
     /**
-     * Generate counts of the number of cells.
+     * Add the number of living cells of each species in one part of a
+     * field to the counts, e.g. for each shard of a field that is simulated
+     * by several processes. Call reset before adding the first part.
+     * @param population The number of living cells of each species, by species id.
+     */
+    public void addCounts(int[] population) {
+        for (int species = 0; species < counters.length && species < population.length; species++) {
+            counters[species].setCount(counters[species].getCount() + population[species]);
+        }
+        countsValid = true;
+    }
+
+    /**
+     * Copy the number of living cells of each species from the field.
      * These are not kept up to date.
      * @param field The field to generate the stats for.
      */
     private void generateCounts(Field field) {
-        reset();
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Cell cell = field.getObjectAt(row, col);
-
-                if (cell != null) {
-                    incrementCount(cell.getClass());
-                }
-            }
+        for (int species = 0; species < Species.getCount(); species++) {
+            counters[species].setCount(field.getPopulation(species));
         }
         countsValid = true;
     }
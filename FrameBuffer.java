@@ -0,0 +1,179 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Hands pictures of the field from the thread running the simulation, or
+ * playing a recorded run back, to the thread drawing it, so the two can run
+ * at different rates.
+ *
+ * There are two frames. The simulation fills whichever one is free after a
+ * generation and makes it the latest frame; the view takes the latest frame
+ * when it is ready to draw and gives it back afterwards. A frame the view
+ * has not taken yet is simply replaced by a newer one (its changed positions
+ * carry over), so generations the view had no time for are skipped rather
+ * than queued. While the view is drawing one frame and another is waiting,
+ * the simulation carries on without publishing, and its changes build up
+ * in the field's ChangeMap.
+ */
+
+public class FrameBuffer {
+    private final int depth, width;
+    private final int emptyColor;
+    private final int[] colors; // colour of every position as of the last publish
+
+    private final ArrayDeque<Frame> free = new ArrayDeque<>(2); // frames free to be filled
+    private Frame latest; // published and not yet taken, or null
+
+    /**
+     * Create the frames for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param emptyColor The colour to show at positions without a living cell.
+     */
+    public FrameBuffer(int depth, int width, int emptyColor) {
+        this.depth = depth;
+        this.width = width;
+        this.emptyColor = emptyColor;
+        colors = new int[depth * width];
+        Arrays.fill(colors, emptyColor);
+        free.push(new Frame());
+        latest = new Frame(); // an empty field, with every position changed
+        Arrays.fill(latest.colors, emptyColor);
+    }
+
+    /**
+     * Make the current state of a simulator the latest frame, if a frame is
+     * free. Only call this from the thread running the simulation.
+     * @param simulator The simulator to take the picture from.
+     * @return true if the frame was published, false if the view is still
+     *         busy with both frames.
+     */
+    public boolean publish(Simulator simulator) {
+        Frame frame = takeFree();
+        if (frame == null) {
+            return false;
+        }
+
+        Field field = simulator.getField();
+        ChangeMap changes = field.getChanges();
+        changes.forEachRegion((top, left, height, regionWidth) -> {
+            for (int row = top; row < top + height; row++) {
+                for (int col = left; col < left + regionWidth; col++) {
+                    Cell cell = field.getObjectAt(row, col);
+                    colors[row * width + col] = cell != null && cell.isAlive() ? cell.getColor() : emptyColor;
+                }
+            }
+        });
+        fill(frame, simulator.getGeneration(), colors, changes, simulator::getPopulation);
+        return true;
+    }
+
+    /**
+     * Make the generation a recorded run is at the latest frame, if a frame
+     * is free. Only call this from the thread playing the run back.
+     * @param log The recorded run; its changes are cleared once published.
+     * @return true if the frame was published, false if the view is still
+     *         busy with both frames.
+     */
+    public boolean publish(GenerationLog log) {
+        Frame frame = takeFree();
+        if (frame == null) {
+            return false;
+        }
+        fill(frame, log.getGeneration(), log.getColors(), log.getChanges(), log::getPopulation);
+        return true;
+    }
+
+    /**
+     * @return A free frame, or null if none is free.
+     */
+    private synchronized Frame takeFree() {
+        return free.poll();
+    }
+
+    /**
+     * Fill in a free frame and make it the latest one.
+     * @param frame The free frame.
+     * @param generation The generation shown.
+     * @param colors The colour of each position, row by row.
+     * @param changes The positions changed since the last publish; cleared here.
+     * @param populations The number of living cells of each species.
+     */
+    private void fill(Frame frame, int generation, int[] colors, ChangeMap changes, IntUnaryOperator populations) {
+        System.arraycopy(colors, 0, frame.colors, 0, colors.length);
+        frame.changes.clear();
+        frame.changes.addAll(changes);
+        changes.clear();
+        frame.generation = generation;
+        for (int species = 0; species < Species.getCount(); species++) {
+            frame.population[species] = populations.applyAsInt(species);
+        }
+
+        synchronized (this) {
+            if (latest != null) {
+                // the view never saw the older frame, so it still has to draw its changes
+                frame.changes.addAll(latest.changes);
+                free.push(latest);
+            }
+            latest = frame;
+        }
+    }
+
+    /**
+     * Take the latest frame, to be drawn. It must be given back with release.
+     * @return The latest frame, or null if nothing new has been published.
+     */
+    public synchronized Frame take() {
+        Frame frame = latest;
+        latest = null;
+        return frame;
+    }
+
+    /**
+     * Give back a frame once it has been drawn.
+     * @param frame The frame taken earlier.
+     */
+    public synchronized void release(Frame frame) {
+        free.push(frame);
+    }
+
+    /**
+     * A picture of the field after some generation.
+     */
+    public class Frame {
+        private int generation;
+        private final int[] population = new int[Species.getCount()];
+        private final int[] colors = new int[depth * width];
+        private final ChangeMap changes = new ChangeMap(depth, width);
+
+        /**
+         * @return The generation shown.
+         */
+        public int getGeneration() {
+            return generation;
+        }
+
+        /**
+         * @param species A species id.
+         * @return The number of living cells of that species.
+         */
+        public int getPopulation(int species) {
+            return population[species];
+        }
+
+        /**
+         * @return The colour of each position, row by row, packed as 0xRRGGBB.
+         */
+        public int[] getColors() {
+            return colors;
+        }
+
+        /**
+         * @return The positions that changed since the previous frame taken.
+         */
+        public ChangeMap getChanges() {
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Is told about every generation a Simulator runs, e.g. to save or record
+ * the run as it goes. Listeners are called on the thread running the
+ * simulation, between generations, so they see a field that is not changing
+ * and should hand any slow work to another thread.
+ */
+
+public interface GenerationListener {
+    /**
+     * Called after the simulator has run a generation, or jumped forward
+     * several generations at once.
+     * @param simulator The simulator, whose field now shows the new generation.
+     */
+    void generationFinished(Simulator simulator);
+}
@@ -0,0 +1,407 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a run recorded by a GenerationRecorder, one generation at a time,
+ * and can jump to any generation of it.
+ *
+ * The log starts with a header (magic number, format version, field size
+ * and number of species) followed by one record per generation. A record
+ * starts with its type, the generation number and the population of each
+ * species. A keyframe record then lists every colour seen so far and the
+ * state of every position; a delta record lists only the runs of positions
+ * that changed, each as the gap since the end of the previous run, the
+ * length of the run and the new state of each position in it, ending with
+ * a run of length zero. All numbers in records are unsigned varints.
+ *
+ * The state of a position is 0 when no cell is alive there, or the number
+ * of its colour in the list of colours seen so far, counting from 1. The
+ * number one past the end of the list adds a new colour, whose red, green
+ * and blue bytes follow.
+ *
+ * Beside the log, an index file holds the generation and byte offset of
+ * every keyframe, as a big-endian int and long, so seeking only has to
+ * read from the nearest keyframe before the generation wanted. A recording
+ * that was never closed can be read up to its last keyframe in the index
+ * and the whole records after it that reached the log.
+ *
+ * The log is read through a buffer at long offsets, so a log can be as
+ * long as the file system allows. It stays open until close is called.
+ */
+
+public class GenerationLog implements Closeable {
+    public static final int MAGIC = 0x4c49464c; // "LIFL"
+    public static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    static final int INDEX_ENTRY_BYTES = 12;
+    private static final int BUFFER_BYTES = 1 << 20; // bytes of the log read at a time
+
+    // record types
+    static final int KEYFRAME = 1;
+    static final int DELTA = 2;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES); // the log from bufferStart on
+    private long bufferStart; // offset in the log of the first byte of the buffer
+    private long end; // offset just past the last complete record
+    private final int depth, width, speciesCount;
+    private final int emptyColor;
+    private final int[] keyGenerations; // generation of each keyframe
+    private final long[] keyOffsets; // position of each keyframe in the log
+    private final int lastGeneration;
+
+    private final int[] colors;
+    private final int[] population;
+    private final ChangeMap changes;
+    private int[] palette = new int[16];
+    private int paletteSize;
+    private int generation = -1; // generation shown, or -1 before the first record is read
+
+    /**
+     * Open a recorded run, positioned before its first generation.
+     * @param file The log file; its index is found with indexFile.
+     * @param emptyColor The colour to show where no cell is alive.
+     * @return The log.
+     * @throws IOException If the log cannot be read or is not a generation log.
+     */
+    public static GenerationLog open(Path file, int emptyColor) throws IOException {
+        ByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexFile(file), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a generation log");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has log version " + version + ", expected " + VERSION);
+            }
+            int count = 0;
+            int[] keyGenerations = new int[index.remaining() / INDEX_ENTRY_BYTES];
+            long[] keyOffsets = new long[keyGenerations.length];
+            while (index.remaining() >= INDEX_ENTRY_BYTES) {
+                keyGenerations[count] = index.getInt();
+                keyOffsets[count] = index.getLong();
+                if (keyOffsets[count] < channel.size()) {
+                    count++; // a keyframe that did not make it into the log is left out
+                }
+            }
+            if (count == 0) {
+                throw new IOException(file + " has no keyframes");
+            }
+            keyGenerations = Arrays.copyOf(keyGenerations, count);
+            keyOffsets = Arrays.copyOf(keyOffsets, count);
+            return new GenerationLog(channel, header.getInt(), header.getInt(), header.getInt(), emptyColor,
+                keyGenerations, keyOffsets);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the index file that goes with a log file.
+     * @param file The log file.
+     * @return The index file.
+     */
+    public static Path indexFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    private GenerationLog(FileChannel channel, int depth, int width, int speciesCount, int emptyColor,
+                          int[] keyGenerations, long[] keyOffsets) throws IOException {
+        this.channel = channel;
+        this.depth = depth;
+        this.width = width;
+        this.speciesCount = speciesCount;
+        this.emptyColor = emptyColor;
+        this.keyGenerations = keyGenerations;
+        this.keyOffsets = keyOffsets;
+        colors = new int[depth * width];
+        population = new int[speciesCount];
+        changes = new ChangeMap(depth, width);
+
+        // the last generation is found by reading on from the last keyframe;
+        // a record cut short (because the recording was not closed) is left out
+        end = channel.size();
+        long recordEnd = keyOffsets[keyOffsets.length - 1];
+        setPosition(recordEnd);
+        try {
+            while (hasRemaining()) {
+                readRecord();
+                recordEnd = getPosition();
+            }
+        }
+        catch (BufferUnderflowException e) {
+            end = recordEnd;
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        lastGeneration = generation;
+        setPosition(HEADER_BYTES);
+        generation = -1;
+        changes.markAll();
+    }
+
+    /**
+     * Move on to the next generation recorded.
+     * @return true if there was one, false at the end of the log.
+     */
+    public boolean next() {
+        if (!hasRemaining()) {
+            return false;
+        }
+        readRecord();
+        return true;
+    }
+
+    /**
+     * Show a generation, or the last one recorded before it if it was
+     * skipped (e.g. by a HashLife jump). Reading starts from the nearest
+     * keyframe at or before the generation.
+     * @param target The generation to show.
+     */
+    public void seek(int target) {
+        int key = Arrays.binarySearch(keyGenerations, target);
+        if (key < 0) {
+            key = Math.max(0, -key - 2); // the keyframe before the insertion point
+        }
+        // go back to the keyframe unless the target can be reached by reading on
+        if (generation < keyGenerations[key] || generation > target) {
+            setPosition(keyOffsets[key]);
+            next();
+        }
+        while (peekGeneration() <= target && next()) {
+            // keep reading
+        }
+    }
+
+    /**
+     * @return The generation of the next record, or Integer.MAX_VALUE at the end of the log.
+     */
+    private int peekGeneration() {
+        if (!hasRemaining()) {
+            return Integer.MAX_VALUE;
+        }
+        long start = getPosition();
+        get(); // type
+        int next = readVarint();
+        setPosition(start);
+        return next;
+    }
+
+    /**
+     * @return The offset in the log of the next byte to be read.
+     */
+    private long getPosition() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Carry on reading from an offset in the log, without reading the log
+     * again if the offset is in the buffer.
+     */
+    private void setPosition(long position) {
+        if (position >= bufferStart && position <= bufferStart + buffer.limit()) {
+            buffer.position((int) (position - bufferStart));
+        }
+        else {
+            bufferStart = position;
+            buffer.limit(0); // filled by the next read
+        }
+    }
+
+    /**
+     * @return true if there is a complete record left to read.
+     */
+    private boolean hasRemaining() {
+        return getPosition() < end;
+    }
+
+    /**
+     * Read the next byte of the log, filling the buffer when it runs out.
+     * @throws BufferUnderflowException At the end of the complete records.
+     * @throws UncheckedIOException If the log cannot be read.
+     */
+    private byte get() {
+        if (!buffer.hasRemaining()) {
+            bufferStart += buffer.limit();
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_BYTES, end - bufferStart));
+            if (!buffer.hasRemaining()) {
+                buffer.limit(0);
+                throw new BufferUnderflowException();
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+                        throw new IOException("The log ended while being read");
+                    }
+                }
+            }
+            catch (IOException e) {
+                buffer.limit(0);
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+        }
+        return buffer.get();
+    }
+
+    /**
+     * Read one record and apply it.
+     */
+    private void readRecord() {
+        int type = get();
+        int recordGeneration = readVarint();
+        for (int s = 0; s < speciesCount; s++) {
+            population[s] = readVarint();
+        }
+        if (type == KEYFRAME) {
+            paletteSize = readVarint();
+            if (paletteSize > palette.length) {
+                palette = new int[paletteSize * 2];
+            }
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = readColor();
+            }
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = readState();
+            }
+            changes.markAll();
+        }
+        else {
+            int position = 0;
+            while (true) {
+                position += readVarint();
+                int length = readVarint();
+                if (length == 0) {
+                    break;
+                }
+                for (int i = position; i < position + length; i++) {
+                    colors[i] = readState();
+                    changes.mark(i / width, i % width);
+                }
+                position += length;
+            }
+        }
+        generation = recordGeneration;
+    }
+
+    /**
+     * Read the state of a position and return the colour it shows.
+     */
+    private int readState() {
+        int state = readVarint();
+        if (state == 0) {
+            return emptyColor;
+        }
+        if (state > paletteSize) {
+            if (paletteSize == palette.length) {
+                palette = Arrays.copyOf(palette, paletteSize * 2);
+            }
+            palette[paletteSize++] = readColor();
+        }
+        return palette[state - 1];
+    }
+
+    private int readColor() {
+        int red = get() & 0xff;
+        int green = get() & 0xff;
+        int blue = get() & 0xff;
+        return Colors.rgb(red, green, blue);
+    }
+
+    private int readVarint() {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Close the log file.
+     * @throws IOException If the file cannot be closed.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return The generation shown, or -1 before the first one is read.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The first generation recorded.
+     */
+    public int getFirstGeneration() {
+        return keyGenerations[0];
+    }
+
+    /**
+     * @return The last generation recorded.
+     */
+    public int getLastGeneration() {
+        return lastGeneration;
+    }
+
+    /**
+     * @return The colour of each position in the generation shown, row by row.
+     */
+    public int[] getColors() {
+        return colors;
+    }
+
+    /**
+     * @param species A species id.
+     * @return The number of living cells of that species in the generation shown.
+     */
+    public int getPopulation(int species) {
+        return species < speciesCount ? population[species] : 0;
+    }
+
+    /**
+     * @return The positions that changed since the map was last cleared.
+     */
+    public ChangeMap getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return The depth of the field recorded.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field recorded.
+     */
+    public int getWidth() {
+        return width;
+    }
+}
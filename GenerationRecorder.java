@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records every generation of a run to a log that a GenerationLog can read
+ * back (see there for the format). After each generation only the positions
+ * that changed are written, with a full keyframe every so many generations
+ * so the log can be read from the middle.
+ *
+ * The simulation thread only encodes the changed positions, which the field
+ * marks in a ChangeMap of the recorder's own, into a record in memory. A
+ * background thread writes the records to the log through a buffer. If the
+ * disk falls far behind, the simulation waits for it rather than dropping
+ * generations.
+ *
+ * The buffer is written out before each keyframe, and a keyframe goes in
+ * the index only once it is in the log. A run that stops without close
+ * being called (killed, say) can still be read up to the last keyframe
+ * written, along with any records after it that reached the log.
+ *
+ * A recorder follows one run: close it before resetting the simulator.
+ */
+
+public class GenerationRecorder implements GenerationListener {
+    private static final int QUEUE_LENGTH = 64; // records waiting to be written before the simulation waits
+    private static final int BUFFER_BYTES = 1 << 18; // bytes collected before writing to the log
+
+    private final Field field;
+    private final int keyframeInterval;
+    private final ChangeMap changes; // positions changed since the last record
+    private final FileChannel log, index;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_LENGTH);
+    private final BlockingQueue<Record> free = new ArrayBlockingQueue<>(QUEUE_LENGTH + 2);
+    private final Record end = new Record(); // tells the writer to stop
+    private final Thread writer;
+    private volatile IOException failure;
+
+    private int[] palette = new int[16]; // colours seen so far; state i + 1 is palette[i]
+    private int paletteSize;
+    private int lastGeneration, lastKeyframe;
+
+    /**
+     * Start recording a simulator from its current generation, which is
+     * written as the first keyframe. The recorder has to be added to the
+     * simulator as a GenerationListener.
+     * @param simulator The simulator to record.
+     * @param file The log file; the index is written beside it (see GenerationLog.indexFile).
+     * @param keyframeInterval The number of generations between keyframes.
+     * @throws IOException If the files cannot be created.
+     */
+    public GenerationRecorder(Simulator simulator, Path file, int keyframeInterval) throws IOException {
+        if (simulator.getCompactField() != null) {
+            throw new IllegalStateException("A CompactField cannot be recorded");
+        }
+        field = simulator.getField();
+        this.keyframeInterval = keyframeInterval;
+        log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        index = FileChannel.open(GenerationLog.indexFile(file), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(GenerationLog.HEADER_BYTES);
+        header.putInt(GenerationLog.MAGIC).putInt(GenerationLog.VERSION)
+            .putInt(field.getDepth()).putInt(field.getWidth()).putInt(Species.getCount());
+        header.flip();
+        write(log, header);
+
+        changes = new ChangeMap(field.getDepth(), field.getWidth());
+        field.addChangeMap(changes);
+        writer = new Thread(this::writeRecords, "recorder");
+        writer.setDaemon(true);
+        writer.start();
+        record(simulator, true);
+    }
+
+    /**
+     * Record the generation just run.
+     * @param simulator The simulator being recorded.
+     */
+    public void generationFinished(Simulator simulator) {
+        int generation = simulator.getGeneration();
+        if (generation <= lastGeneration) {
+            throw new IllegalStateException("The simulator went back to generation " + generation
+                + "; close the recorder before resetting");
+        }
+        record(simulator, generation - lastKeyframe >= keyframeInterval);
+    }
+
+    /**
+     * Stop recording and wait until everything recorded has been written.
+     * @throws IOException If the log could not be written.
+     */
+    public void close() throws IOException {
+        field.removeChangeMap(changes);
+        put(end);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException ie) {
+            // close the files anyway
+        }
+        log.close();
+        index.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Encode the current generation and hand it to the writer.
+     */
+    private void record(Simulator simulator, boolean keyframe) {
+        Record record = free.poll();
+        if (record == null) {
+            record = new Record();
+        }
+        int generation = simulator.getGeneration();
+        record.length = 0;
+        record.keyframe = keyframe;
+        record.generation = generation;
+        record.putByte(keyframe ? GenerationLog.KEYFRAME : GenerationLog.DELTA);
+        record.putVarint(generation);
+        for (int species = 0; species < Species.getCount(); species++) {
+            record.putVarint(simulator.getPopulation(species));
+        }
+
+        if (keyframe) {
+            record.putVarint(paletteSize);
+            for (int i = 0; i < paletteSize; i++) {
+                record.putColor(palette[i]);
+            }
+            for (int row = 0; row < field.getDepth(); row++) {
+                for (int col = 0; col < field.getWidth(); col++) {
+                    putState(record, field.getObjectAt(row, col));
+                }
+            }
+            lastKeyframe = generation;
+        }
+        else {
+            Record delta = record;
+            int[] previousEnd = {0};
+            changes.forEachRun((row, col, height, length) -> {
+                int position = row * field.getWidth() + col;
+                delta.putVarint(position - previousEnd[0]);
+                delta.putVarint(length);
+                for (int c = col; c < col + length; c++) {
+                    putState(delta, field.getObjectAt(row, c));
+                }
+                previousEnd[0] = position + length;
+            });
+            record.putVarint(0);
+            record.putVarint(0); // a run of length zero ends the record
+        }
+        changes.clear();
+        lastGeneration = generation;
+        put(record);
+    }
+
+    /**
+     * Encode the state of a position, adding its colour to the palette if
+     * it has not been seen before.
+     */
+    private void putState(Record record, Cell cell) {
+        if (cell == null || !cell.isAlive()) {
+            record.putVarint(0);
+            return;
+        }
+        int color = cell.getColor();
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == color) {
+                record.putVarint(i + 1);
+                return;
+            }
+        }
+        if (paletteSize == palette.length) {
+            palette = Arrays.copyOf(palette, paletteSize * 2);
+        }
+        palette[paletteSize++] = color;
+        record.putVarint(paletteSize); // one past the colours seen before: a new colour follows
+        record.putColor(color);
+    }
+
+    private void put(Record record) {
+        try {
+            queue.put(record);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write records to the log until told to stop. Each keyframe is written
+     * straight to the log, after the records buffered before it, and then
+     * its offset goes in the index.
+     */
+    private void writeRecords() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        ByteBuffer entry = ByteBuffer.allocate(GenerationLog.INDEX_ENTRY_BYTES);
+        long offset = GenerationLog.HEADER_BYTES;
+        try {
+            while (true) {
+                Record record = queue.take();
+                if (record == end) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        if (record.length > buffer.remaining() || record.keyframe) {
+                            flush(log, buffer);
+                        }
+                        if (record.length > buffer.remaining() || record.keyframe) {
+                            write(log, ByteBuffer.wrap(record.data, 0, record.length)); // a keyframe, or too big to buffer
+                        }
+                        else {
+                            buffer.put(record.data, 0, record.length);
+                        }
+                        if (record.keyframe) {
+                            // the keyframe is in the log, so the index can point at it
+                            entry.putInt(record.generation).putLong(offset);
+                            flush(index, entry);
+                        }
+                        offset += record.length;
+                    }
+                    catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.offer(record);
+            }
+            flush(log, buffer);
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        catch (InterruptedException ie) {
+            // stop writing
+        }
+    }
+
+    /**
+     * Write out what has been put in a buffer and empty it.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        write(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * One generation, encoded.
+     */
+    private static class Record {
+        private byte[] data = new byte[1024];
+        private int length;
+        private boolean keyframe;
+        private int generation;
+
+        void putByte(int value) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[length++] = (byte) value;
+        }
+
+        void putVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                putByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            putByte(value);
+        }
+
+        void putColor(int color) {
+            putByte(color >> 16);
+            putByte(color >> 8);
+            putByte(color);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exchanges the border rows of one shard of a field with the shards above
+ * and below it, which run in other processes (see ShardWorker). The shards
+ * are bands of whole rows. Each keeps a ghost copy of the row next to it
+ * in the neighbouring shard in its field's ghost row, so its cells see the
+ * same neighbours as in the whole field.
+ *
+ * The ParallelStepper of each shard exchanges, every generation:
+ * - after the commit, the state of the border cells: species, whether they
+ *   are alive or infected, whether a new cell took the position, and
+ *   whether the cell is volatile (for the active tiles);
+ * - after each half of the act phase, the effects the shard's cells had
+ *   on the ghosts: the ghosts that caught the disease and the Chromacystis
+ *   ghosts a Phasophyta killed, which the owning shard applies to the
+ *   real cells, along with the Phasophyta of the border rows that are
+ *   able to reproduce, which the revive phase looks at.
+ * The owning shard applies the kills of the first half before its own
+ * cells in the second half act, just as if one stepper ran the whole field.
+ *
+ * Messages are written to the sockets by a thread for each neighbour, so
+ * two shards sending to each other at once never wait for each other.
+ */
+
+public class Halo {
+    // bits of the state sent for each border cell, besides those of Snapshot
+    private static final int REPLACED = 64; // a new cell took the position since the last exchange
+    private static final int VOLATILE = 128; // the cell may change by itself, see Cell.isVolatile
+
+    private final Simulator simulator;
+    private final Field field;
+    private final Link up, down; // the shards above and below, or null at the edges of the whole field
+
+    /**
+     * Create the exchange for a shard.
+     * @param simulator The simulator of the shard.
+     * @param up The connection to the shard above, or null if this is the first shard.
+     * @param down The connection to the shard below, or null if this is the last shard.
+     * @throws IOException If the connections cannot be used.
+     */
+    public Halo(Simulator simulator, Socket up, Socket down) throws IOException {
+        this.simulator = simulator;
+        field = simulator.getField();
+        this.up = up == null ? null : new Link(up, 0, -1);
+        this.down = down == null ? null : new Link(down, field.getDepth() - 1, field.getDepth());
+    }
+
+    /**
+     * Send the state of the border cells to the neighbouring shards and
+     * update the ghost rows from theirs. This is run at the end of every
+     * generation, and once before the first.
+     */
+    public void exchangeState() {
+        try {
+            for (Link link : links()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * field.getWidth());
+                for (int col = 0; col < field.getWidth(); col++) {
+                    Cell cell = field.getObjectAt(link.ownRow, col);
+                    int flags = cell.getMirrorFlags() | (cell != link.sent[col] ? REPLACED : 0)
+                        | (cell.isVolatile() ? VOLATILE : 0);
+                    link.sent[col] = cell;
+                    bytes.write(Species.of(cell));
+                    bytes.write(flags);
+                }
+                link.send(bytes);
+            }
+            ActiveTiles tiles = simulator.getActiveTiles();
+            for (Link link : links()) {
+                for (int col = 0; col < field.getWidth(); col++) {
+                    int species = link.in.readUnsignedByte();
+                    int flags = link.in.readUnsignedByte();
+                    Cell ghost = field.getObjectAt(link.ghostRow, col);
+                    boolean changed = ghost == null || (flags & REPLACED) != 0
+                        || (ghost.getMirrorFlags() & (Snapshot.ALIVE | Snapshot.INFECTED))
+                            != (flags & (Snapshot.ALIVE | Snapshot.INFECTED));
+                    if (ghost == null || (flags & REPLACED) != 0) {
+                        // placing it tells the neighbours, as the new cell in the other shard did
+                        ghost = Species.get(species).create(field, new Location(link.ghostRow, col));
+                    }
+                    ghost.mirror(flags);
+                    link.ghostFlags[col] = flags;
+                    if (tiles != null && (changed || (flags & VOLATILE) != 0)) {
+                        tiles.markChanged(link.ghostRow, col);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Pass on what the shard's cells did to the ghosts, apply what the
+     * neighbouring shards' cells did to the border cells, and update which
+     * ghosts can reproduce. This is run after each half of the act phase.
+     */
+    public void exchangeEffects() {
+        try {
+            List<Cell> caught = field.getEpidemic().takeCaught(
+                cell -> cell.getLocation().getRow() < 0 || cell.getLocation().getRow() >= field.getDepth());
+            for (Link link : links()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream message = new DataOutputStream(bytes);
+                int count = 0;
+                for (Cell cell : caught) {
+                    if (cell.getLocation().getRow() == link.ghostRow) {
+                        count++;
+                    }
+                }
+                message.writeInt(count);
+                for (Cell cell : caught) {
+                    if (cell.getLocation().getRow() == link.ghostRow) {
+                        message.writeInt(cell.getLocation().getCol());
+                    }
+                }
+                count = 0;
+                for (int col = 0; col < field.getWidth(); col++) {
+                    if (field.getObjectAt(link.ghostRow, col).getKilled()) {
+                        count++;
+                    }
+                }
+                message.writeInt(count);
+                for (int col = 0; col < field.getWidth(); col++) {
+                    Cell ghost = field.getObjectAt(link.ghostRow, col);
+                    if (ghost.getKilled()) {
+                        message.writeInt(col);
+                        ghost.mirror(link.ghostFlags[col]); // so it is only passed on once
+                    }
+                }
+                for (int col = 0; col < field.getWidth(); col++) {
+                    message.writeByte(field.getObjectAt(link.ownRow, col).getMirrorFlags());
+                }
+                link.send(bytes);
+            }
+            for (Link link : links()) {
+                for (int i = link.in.readInt(); i > 0; i--) {
+                    field.getEpidemic().infect(field.getObjectAt(link.ownRow, link.in.readInt()));
+                }
+                for (int i = link.in.readInt(); i > 0; i--) {
+                    Cell cell = field.getObjectAt(link.ownRow, link.in.readInt());
+                    cell.setNextState(false);
+                    cell.setKilled();
+                }
+                for (int col = 0; col < field.getWidth(); col++) {
+                    int flags = link.in.readUnsignedByte();
+                    field.getObjectAt(link.ghostRow, col).mirror(flags);
+                    link.ghostFlags[col] = flags;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the connections to the neighbouring shards, once everything
+     * sent to them has been written.
+     * @throws IOException If a message could not be sent.
+     */
+    public void close() throws IOException {
+        for (Link link : links()) {
+            link.close();
+        }
+    }
+
+    /**
+     * @return The connections to the neighbouring shards there are.
+     */
+    private Link[] links() {
+        if (up == null) {
+            return down == null ? new Link[0] : new Link[] {down};
+        }
+        return down == null ? new Link[] {up} : new Link[] {up, down};
+    }
+
+    /**
+     * The connection to one neighbouring shard.
+     */
+    private class Link {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final ExecutorService sender;
+        private Future<?> pending; // the last message being sent, or null
+        private final int ownRow, ghostRow; // the border row next to the other shard, and its copy of the other's
+        private final Cell[] sent; // the border cells as last sent, to tell when one is replaced
+        private final int[] ghostFlags; // the ghosts' flags as last received
+
+        Link(Socket socket, int ownRow, int ghostRow) throws IOException {
+            this.socket = socket;
+            this.ownRow = ownRow;
+            this.ghostRow = ghostRow;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            sender = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "halo");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sent = new Cell[field.getWidth()];
+            ghostFlags = new int[field.getWidth()];
+        }
+
+        /**
+         * Send a message on the link's thread, once the last one has gone.
+         */
+        void send(ByteArrayOutputStream message) throws IOException {
+            finishSending();
+            pending = sender.submit(() -> {
+                message.writeTo(out);
+                out.flush();
+                return null;
+            });
+        }
+
+        /**
+         * Wait for the last message to be sent.
+         */
+        void finishSending() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            try {
+                pending.get();
+            }
+            catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            pending = null;
+        }
+
+        void close() throws IOException {
+            try {
+                finishSending();
+            }
+            finally {
+                sender.shutdown();
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gosper's HashLife algorithm for fields in which only Mycoplasma is alive.
+ * Mycoplasma follows Conway's rules exactly, so such a field can be stored
+ * as a quadtree of shared, canonical nodes in which every node remembers
+ * its own future. That lets a whole field jump 2^k generations at once,
+ * at a cost that depends on how much distinct structure the pattern has
+ * rather than on its area or on k.
+ *
+ * The quadtree describes an unbounded plane, while a Field ends at its
+ * edges or wraps around them. A jump is therefore only taken when the
+ * living cells cannot reach the edge of the field during it; otherwise the
+ * caller should fall back to stepping one generation at a time.
+ */
+
+public class HashLife {
+    private static final int MAX_NODES = 1 << 22; // the cache is emptied when it grows past this
+
+    private final Map<Node, Node> nodes = new HashMap<>();
+    private final Node off = new Node(0);
+    private final Node on = new Node(1);
+    private Node[] empty;
+
+    /**
+     * Create an engine with an empty cache.
+     */
+    public HashLife() {
+        clearCache();
+    }
+
+    /**
+     * Check whether a field can be run with HashLife, i.e. whether only
+     * uninfected Mycoplasma is alive and no dead Mycoplasma is barred from
+     * reviving.
+     * @param field The field to check.
+     * @return true if the field behaves exactly like Conway's Game of Life.
+     */
+    public static boolean canSimulate(Field field) {
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell.isAlive() && (Species.of(cell) != Species.MYCOPLASMA || cell.isInfected())) {
+                    return false;
+                }
+                if (!cell.isAlive() && Species.of(cell) == Species.MYCOPLASMA && cell.getKilled()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move a field forward by the largest power of two generations that is
+     * at most maxGenerations and keeps every living cell inside the field.
+     * Cells that die are marked dead; positions that come to life get a new
+     * Mycoplasma, which is reported to the caller.
+     * The field must satisfy canSimulate.
+     * @param field The field to advance.
+     * @param maxGenerations The most generations to move forward.
+     * @param revivedCells Receives the new cells.
+     * @return The number of generations moved forward, or 0 if the
+     *         living cells are too close to the edge of the field.
+     */
+    public int advance(Field field, int maxGenerations, List<Cell> revivedCells) {
+        int minRow = Integer.MAX_VALUE, maxRow = -1;
+        int minCol = Integer.MAX_VALUE, maxCol = -1;
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                if (field.getObjectAt(row, col).isAlive()) {
+                    minRow = Math.min(minRow, row);
+                    maxRow = Math.max(maxRow, row);
+                    minCol = Math.min(minCol, col);
+                    maxCol = Math.max(maxCol, col);
+                }
+            }
+        }
+        if (maxRow < 0) {
+            return maxGenerations; // nothing is alive, so nothing will change
+        }
+
+        // living cells spread by at most one position per generation
+        int margin = Math.min(Math.min(minRow, minCol),
+            Math.min(field.getDepth() - 1 - maxRow, field.getWidth() - 1 - maxCol));
+        if (field.getBoundary() == Field.DEAD_BORDER) {
+            margin--; // the positions on the edges must stay dead
+        }
+        int limit = Math.min(margin, maxGenerations);
+        if (limit < 1) {
+            return 0;
+        }
+        int step = 31 - Integer.numberOfLeadingZeros(limit); // log2 of the jump
+        if (nodes.size() > MAX_NODES) {
+            clearCache();
+        }
+
+        int level = 2;
+        while ((1 << level) < Math.max(maxRow - minRow + 1, maxCol - minCol + 1)) {
+            level++;
+        }
+        Node node = build(field, level, minRow, minCol, minRow, maxRow, minCol, maxCol);
+        long originRow = minRow;
+        long originCol = minCol;
+        while (node.level < step + 2 || !isPadded(node)) {
+            long half = 1L << (node.level - 1);
+            node = centre(node);
+            originRow -= half;
+            originCol -= half;
+        }
+        node = successor(centre(node), step);
+
+        // write back every position the pattern could have reached
+        int firstRow = minRow - (1 << step), lastRow = maxRow + (1 << step);
+        int firstCol = minCol - (1 << step), lastCol = maxCol + (1 << step);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                boolean alive = get(node, row - originRow, col - originCol);
+                Cell cell = field.getObjectAt(row, col);
+                if (alive && !cell.isAlive()) {
+                    Cell newCell = new Mycoplasma(field, cell.getLocation(), Colors.ORANGE);
+                    newCell.setNextState(true);
+                    revivedCells.add(newCell);
+                }
+                else if (!alive && cell.isAlive()) {
+                    cell.setNextState(false);
+                    cell.updateState();
+                }
+            }
+        }
+        return 1 << step;
+    }
+
+    /**
+     * Forget every node, e.g. to free memory.
+     */
+    public void clearCache() {
+        nodes.clear();
+        empty = new Node[64];
+        empty[0] = off;
+        for (int level = 1; level < empty.length; level++) {
+            empty[level] = join(empty[level - 1], empty[level - 1], empty[level - 1], empty[level - 1]);
+        }
+    }
+
+    /**
+     * Build the node of the given level whose top left corner is at (row, col),
+     * looking only at the living cells inside the bounding box.
+     */
+    private Node build(Field field, int level, int row, int col,
+                       int minRow, int maxRow, int minCol, int maxCol) {
+        int size = 1 << level;
+        if (row > maxRow || col > maxCol || row + size <= minRow || col + size <= minCol) {
+            return empty[level];
+        }
+        if (level == 0) {
+            return field.getObjectAt(row, col).isAlive() ? on : off;
+        }
+        int half = size / 2;
+        return join(build(field, level - 1, row, col, minRow, maxRow, minCol, maxCol),
+                    build(field, level - 1, row, col + half, minRow, maxRow, minCol, maxCol),
+                    build(field, level - 1, row + half, col, minRow, maxRow, minCol, maxCol),
+                    build(field, level - 1, row + half, col + half, minRow, maxRow, minCol, maxCol));
+    }
+
+    /**
+     * Look up one cell of a node.
+     */
+    private boolean get(Node node, long row, long col) {
+        while (node.level > 0) {
+            if (node.population == 0) {
+                return false;
+            }
+            long half = 1L << (node.level - 1);
+            if (row < half) {
+                node = col < half ? node.nw : node.ne;
+            }
+            else {
+                node = col < half ? node.sw : node.se;
+                row -= half;
+            }
+            if (col >= half) {
+                col -= half;
+            }
+        }
+        return node == on;
+    }
+
+    /**
+     * Return the canonical node with the given quadrants.
+     */
+    private Node join(Node nw, Node ne, Node sw, Node se) {
+        Node node = new Node(nw, ne, sw, se);
+        Node existing = nodes.putIfAbsent(node, node);
+        return existing == null ? node : existing;
+    }
+
+    /**
+     * Return a node of twice the size with the given node in its centre.
+     */
+    private Node centre(Node node) {
+        Node e = empty[node.level - 1];
+        return join(join(e, e, e, node.nw), join(e, e, node.ne, e),
+                    join(e, node.sw, e, e), join(node.se, e, e, e));
+    }
+
+    /**
+     * Check whether every living cell of a node is in its central half, so
+     * it cannot spread out of the node in a quarter of its size.
+     */
+    private boolean isPadded(Node node) {
+        return node.population == node.nw.se.population + node.ne.sw.population
+                                  + node.sw.ne.population + node.se.nw.population;
+    }
+
+    /**
+     * Return the central half of a node, 2^step generations in the future.
+     * step must be at most the node's level minus two.
+     */
+    private Node successor(Node node, int step) {
+        if (node.population == 0) {
+            return node.nw;
+        }
+        step = Math.min(step, node.level - 2);
+        if (node.result != null && node.resultStep == step) {
+            return node.result;
+        }
+
+        Node result;
+        if (node.level == 2) {
+            result = stepSmall(node);
+        }
+        else {
+            Node c1 = successor(node.nw, step);
+            Node c2 = successor(join(node.nw.ne, node.ne.nw, node.nw.se, node.ne.sw), step);
+            Node c3 = successor(node.ne, step);
+            Node c4 = successor(join(node.nw.sw, node.nw.se, node.sw.nw, node.sw.ne), step);
+            Node c5 = successor(join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw), step);
+            Node c6 = successor(join(node.ne.sw, node.ne.se, node.se.nw, node.se.ne), step);
+            Node c7 = successor(node.sw, step);
+            Node c8 = successor(join(node.sw.ne, node.se.nw, node.sw.se, node.se.sw), step);
+            Node c9 = successor(node.se, step);
+
+            if (step < node.level - 2) {
+                // the nine pieces have already moved far enough: just take their centres
+                result = join(join(c1.se, c2.sw, c4.ne, c5.nw), join(c2.se, c3.sw, c5.ne, c6.nw),
+                              join(c4.se, c5.sw, c7.ne, c8.nw), join(c5.se, c6.sw, c8.ne, c9.nw));
+            }
+            else {
+                result = join(successor(join(c1, c2, c4, c5), step), successor(join(c2, c3, c5, c6), step),
+                              successor(join(c4, c5, c7, c8), step), successor(join(c5, c6, c8, c9), step));
+            }
+        }
+        node.result = result;
+        node.resultStep = step;
+        return result;
+    }
+
+    /**
+     * Run the central 2x2 cells of a 4x4 node through one generation of
+     * Mycoplasma's rules (a cell survives with 2 or 3 neighbours and is
+     * born with 3).
+     */
+    private Node stepSmall(Node node) {
+        boolean[][] cells = new boolean[4][4];
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                cells[row][col] = get(node, row, col);
+            }
+        }
+        Node[] next = new Node[4];
+        for (int i = 0; i < 4; i++) {
+            int row = 1 + i / 2;
+            int col = 1 + i % 2;
+            int neighbours = 0;
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = col - 1; c <= col + 1; c++) {
+                    if ((r != row || c != col) && cells[r][c]) {
+                        neighbours++;
+                    }
+                }
+            }
+            boolean alive = neighbours == 3 || (neighbours == 2 && cells[row][col]);
+            next[i] = alive ? on : off;
+        }
+        return join(next[0], next[1], next[2], next[3]);
+    }
+
+    /**
+     * A square of 2^level by 2^level cells. Nodes are shared: there is only
+     * one node for each distinct square, so they are compared by identity.
+     */
+    private static class Node {
+        private final int level;
+        private final Node nw, ne, sw, se;
+        private final long population;
+        private final int hash;
+        private Node result; // the centre of this node, resultStep generations on
+        private int resultStep;
+
+        Node(int population) {
+            level = 0;
+            nw = ne = sw = se = null;
+            this.population = population;
+            hash = population;
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se) {
+            level = nw.level + 1;
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            population = nw.population + ne.population + sw.population + se.population;
+            hash = ((System.identityHashCode(nw) * 31 + System.identityHashCode(ne)) * 31
+                    + System.identityHashCode(sw)) * 31 + System.identityHashCode(se);
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) obj;
+            return nw == other.nw && ne == other.ne && sw == other.sw && se == other.se
+                && (level > 0 || population == other.population);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures where the time of a run goes: how long each phase of a
+ * generation takes, how often dead positions try to come back as each
+ * species and succeed, how many cells catch the disease, and how long
+ * SimulatorView takes to draw a frame. The measurements can be read over
+ * JMX (see MetricsMXBean) or printed as a report every so often.
+ *
+ * Metrics are only taken when the JVM is started with -Dlife.metrics=true.
+ * Every place that measures checks ENABLED first; when it is false the JIT
+ * compiler removes the checks and what they guard, so a run without
+ * metrics costs nothing extra.
+ *
+ * The cells act and revive in separate phases (see ParallelStepper), so
+ * each phase is timed whole. There is one set of metrics for the JVM,
+ * meant for one simulation at a time.
+ */
+
+public class Metrics implements MetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("life.metrics");
+
+    // phases
+    public static final int DISEASE = 0; // the epidemic's step and commit
+    public static final int ACT = 1;
+    public static final int REVIVE = 2;
+    public static final int LIST_UPDATE = 3; // putting revived cells in the simulator's list
+    public static final int UPDATE_STATE = 4; // committing the next states
+    public static final int HALO = 5; // exchanging border rows with other shards
+    public static final int RENDER = 6; // drawing a frame in SimulatorView
+    private static final String[] PHASE_NAMES = {"disease", "act", "revive", "list update", "updateState",
+        "halo", "render"};
+
+    private static final int MAX_SPECIES = 64; // species ids counted
+
+    private static final Metrics instance = ENABLED ? register(new Metrics()) : null;
+
+    private final Histogram[] histograms = new Histogram[PHASE_NAMES.length];
+    private final long[] current = new long[PHASE_NAMES.length]; // phase times of the generation being run
+    private final AtomicLongArray reviveAttempts = new AtomicLongArray(MAX_SPECIES);
+    private final AtomicLongArray reviveSuccesses = new AtomicLongArray(MAX_SPECIES);
+    private volatile long infections;
+    private volatile long generations;
+
+    private Metrics() {
+        for (int phase = 0; phase < histograms.length; phase++) {
+            histograms[phase] = new Histogram();
+        }
+    }
+
+    private static Metrics register(Metrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("life:type=Metrics"));
+        }
+        catch (JMException e) {
+            System.err.println("Metrics are not available over JMX: " + e);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The metrics of this JVM, or null if they are not enabled.
+     */
+    public static Metrics get() {
+        return instance;
+    }
+
+    /**
+     * Start timing something.
+     * @return The time now, or 0 if metrics are not enabled.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Add the time since start to a phase of the generation being run.
+     * Only call this from the thread running the generation.
+     * @param phase The phase.
+     * @param start The time returned by start.
+     */
+    public static void stop(int phase, long start) {
+        if (ENABLED) {
+            instance.current[phase] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Record the time of each phase of the generation that has just been
+     * run.
+     */
+    public static void endGeneration() {
+        if (ENABLED) {
+            long[] current = instance.current;
+            for (int phase = 0; phase < current.length; phase++) {
+                if (current[phase] > 0) {
+                    instance.histograms[phase].record(current[phase]);
+                    current[phase] = 0;
+                }
+            }
+            instance.generations++;
+        }
+    }
+
+    /**
+     * Record how long a frame took to draw.
+     * @param start The time returned by start when drawing began.
+     */
+    public static void frameDrawn(long start) {
+        if (ENABLED) {
+            instance.histograms[RENDER].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Count an attempt to bring a dead position back as a species.
+     * @param species The species id.
+     * @param revived Whether the position came back.
+     */
+    public static void countRevive(int species, boolean revived) {
+        if (ENABLED && species < MAX_SPECIES) {
+            instance.reviveAttempts.incrementAndGet(species);
+            if (revived) {
+                instance.reviveSuccesses.incrementAndGet(species);
+            }
+        }
+    }
+
+    /**
+     * Count the cells that caught the disease in a generation.
+     * @param count The number of new infections.
+     */
+    public static void countInfections(int count) {
+        if (ENABLED) {
+            instance.infections += count;
+        }
+    }
+
+    /**
+     * Print the report every so often, on a background thread.
+     * @param out Where to print it.
+     * @param seconds The time between reports.
+     */
+    public static void startReporting(PrintStream out, long seconds) {
+        if (!ENABLED) {
+            throw new IllegalStateException("Metrics are not enabled; start the JVM with -Dlife.metrics=true");
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.print(instance.getReport()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public long getGenerations() {
+        return generations;
+    }
+
+    public Map<String, Double> getMeanMillis() {
+        return byPhase(Histogram::getMean);
+    }
+
+    public Map<String, Double> getP99Millis() {
+        return byPhase(histogram -> histogram.getPercentile(0.99));
+    }
+
+    public Map<String, Double> getMaxMillis() {
+        return byPhase(Histogram::getMax);
+    }
+
+    public Map<String, Long> getReviveAttempts() {
+        return bySpecies(reviveAttempts);
+    }
+
+    public Map<String, Long> getReviveSuccesses() {
+        return bySpecies(reviveSuccesses);
+    }
+
+    public long getInfectionsSpread() {
+        return infections;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d generations, %d infections spread%n", generations, infections));
+        report.append(String.format("%-12s %10s %10s %10s %10s%n", "phase", "count", "mean ms", "p99 ms", "max ms"));
+        for (int phase = 0; phase < histograms.length; phase++) {
+            Histogram histogram = histograms[phase];
+            if (histogram.getCount() > 0) {
+                report.append(String.format("%-12s %10d %10.3f %10.3f %10.3f%n", PHASE_NAMES[phase],
+                    histogram.getCount(), histogram.getMean(), histogram.getPercentile(0.99), histogram.getMax()));
+            }
+        }
+        report.append(String.format("%-12s %10s %10s%n", "revived as", "attempts", "successes"));
+        for (int species = 0; species < Math.min(Species.getCount(), MAX_SPECIES); species++) {
+            report.append(String.format("%-12s %10d %10d%n", Species.getName(species),
+                reviveAttempts.get(species), reviveSuccesses.get(species)));
+        }
+        return report.toString();
+    }
+
+    public void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int species = 0; species < MAX_SPECIES; species++) {
+            reviveAttempts.set(species, 0);
+            reviveSuccesses.set(species, 0);
+        }
+        infections = 0;
+        generations = 0;
+    }
+
+    private Map<String, Double> byPhase(ToDoubleFunction<Histogram> statistic) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (int phase = 0; phase < histograms.length; phase++) {
+            values.put(PHASE_NAMES[phase], statistic.applyAsDouble(histograms[phase]));
+        }
+        return values;
+    }
+
+    private Map<String, Long> bySpecies(AtomicLongArray counts) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (int species = 0; species < Math.min(Species.getCount(), MAX_SPECIES); species++) {
+            values.put(Species.getName(species), counts.get(species));
+        }
+        return values;
+    }
+
+    /**
+     * The distribution of the times of one phase, in buckets that double
+     * in size, so recording a time is cheap and the percentiles are right
+     * to within a factor of two.
+     */
+    private static class Histogram {
+        private final long[] buckets = new long[64]; // bucket i holds times below 2^i nanoseconds
+        private long count, total, max;
+
+        synchronized void record(long nanos) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(nanos, 0))]++;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized double getMean() {
+            return count == 0 ? 0 : total / 1e6 / count;
+        }
+
+        synchronized double getMax() {
+            return max / 1e6;
+        }
+
+        /**
+         * @return The upper bound of the bucket holding the given share of the times, in milliseconds.
+         */
+        synchronized double getPercentile(double share) {
+            long wanted = (long) Math.ceil(count * share);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= wanted && seen > 0) {
+                    return Math.min(1L << i, max) / 1e6;
+                }
+            }
+            return 0;
+        }
+
+        synchronized void reset() {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        }
+    }
+}
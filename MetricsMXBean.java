@@ -0,0 +1,54 @@
+import java.util.Map;
+
+/**
+ * The management interface of Metrics, as shown by JConsole or any other
+ * JMX client under the name life:type=Metrics. Times are in milliseconds;
+ * maps are keyed by phase or species name.
+ */
+
+public interface MetricsMXBean {
+    /**
+     * @return The number of generations measured.
+     */
+    long getGenerations();
+
+    /**
+     * @return The mean time of each phase, per generation (or per frame for rendering).
+     */
+    Map<String, Double> getMeanMillis();
+
+    /**
+     * @return The time within which 99% of generations finished each phase.
+     */
+    Map<String, Double> getP99Millis();
+
+    /**
+     * @return The longest time each phase took.
+     */
+    Map<String, Double> getMaxMillis();
+
+    /**
+     * @return The number of times a dead position tried to come back as each species.
+     */
+    Map<String, Long> getReviveAttempts();
+
+    /**
+     * @return The number of times a dead position came back as each species.
+     */
+    Map<String, Long> getReviveSuccesses();
+
+    /**
+     * @return The number of cells that caught the disease.
+     */
+    long getInfectionsSpread();
+
+    /**
+     * @return Everything measured, as a table of text.
+     */
+    String getReport();
+
+    /**
+     * Forget everything measured so far.
+     */
+    void reset();
+}
@@ -1,8 +1,5 @@
  
 
-import javafx.scene.paint.Color; 
-import java.util.List;
-import java.util.stream.Stream;
 
 /**
  * Simplest form of life.
@@ -15,6 +12,7 @@ import java.util.stream.Stream;
  */
 
 public class Mycoplasma extends Cell {
+    private static final Species SPECIES = Species.get(Species.MYCOPLASMA);
     
     /**
      * Create a new Mycoplasma.
@@ -22,7 +20,7 @@ public class Mycoplasma extends Cell {
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Mycoplasma(Field field, Location location, Color col) {
+    public Mycoplasma(Field field, Location location, int col) {
         super(field, location, col);
     }
 
@@ -30,17 +28,10 @@ public class Mycoplasma extends Cell {
     * This is how the Mycoplasma decides if it's alive or not
     */
     public void act() {
-        neighbours = getField().getLivingNeighbours(getLocation(), Mycoplasma.class); // updates neighbour list
-        updateInfectionState();
+        int neighbours = getField().countLivingNeighbours(getLocation(), SPECIES);
     
         if (isAlive() && !isInfected()) {
-            if (neighbours.size() == 2 || neighbours.size() == 3) {
-                setNextState(true);   
-            }
-            
-            else if (neighbours.size() < 2 || neighbours.size() > 3) {
-                setNextState(false);
-            }
+            setNextState(SPECIES.survives(neighbours)); // survives with 2 or 3 neighbours
         }
         else if(!isAlive() && !isInfected()) {
             setNextState(false);
@@ -48,18 +39,23 @@ public class Mycoplasma extends Cell {
     }
     
     /**
-     * This is how the Mycoplasma checks if it can be revived
-     * If the Mycoplasma cell has 3 adjacent cells, it can be revived
-     * @return True if the cell can be revived
+     * @return The Mycoplasma species.
      */
-    public boolean canRevive(){
-        neighbours = getField().getLivingNeighbours(getLocation(), Mycoplasma.class); // updates neighbour list
-        
-        if(neighbours == null) {
-            return false;
+    public Species getSpecies() {
+        return SPECIES;
+    }
+    
+    /**
+     * The rules of the Mycoplasma species: a cell survives with 2 or 3
+     * Mycoplasma neighbours, and a dead position with exactly 3 comes to life.
+     */
+    static class Rules extends Species {
+        Rules() {
+            super("Mycoplasma", table(2, 3), table(3));
         }
-        else {
-            return neighbours.size() == 3;
+        
+        public Cell create(Field field, Location location) {
+            return new Mycoplasma(field, location, Colors.ORANGE);
         }
     }
 }
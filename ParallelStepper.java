@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps the cells of a Simulator, on several threads if asked to. The field
+ * is cut into bands of rows and each generation runs in three phases: every
+ * cell acts, every dead cell tries to revive, then every cell commits its
+ * next state.
+ *
+ * A cell may change its neighbours while it acts or revives (a Phasophyta
+ * killing a Chromacystis, a revived cell taking its position), so during the act and revive phases only every other band runs
+ * at once: two bands that run together are always separated by a band that
+ * is idle. On a toroidal field the first and last bands are neighbours too,
+ * so when there is an odd number of bands the last one runs on its own.
+ * Cells only ever read or write their own state during the commit
+ * phase, so all bands run together there.
+ *
+ * The disease only visits the few infected cells, so the simulator's
+ * Epidemic runs on the calling thread before the bands act and after
+ * they commit.
+ *
+ * Bands have a fixed height, so the way the field is cut up does not depend
+ * on the number of threads. With a single thread the bands run one after
+ * another on the calling thread, in the same order, so a run is the same
+ * on any number of threads.
+ *
+ * When the field is one shard of a larger field (see Halo), the bands are
+ * numbered as in the whole field, and the border rows are exchanged with
+ * the neighbouring shards after each half of the act phase and at the end
+ * of the generation. The run is then the same as if one stepper had the
+ * whole field.
+ */
+
+public class ParallelStepper {
+    // a band is one stripe of the field's population counters, so bands
+    // stepped at the same time never update the same counter
+    private static final int BAND_ROWS = Field.STRIPE_ROWS;
+
+    private static final int ACT = 0;
+    private static final int REVIVE = 1;
+    private static final int COMMIT = 2;
+
+    private final Simulator simulator;
+    private final ForkJoinPool pool; // runs the bands, or null to run them on the calling thread
+    private final Band[] bands;
+
+    /**
+     * Create a stepper for a simulator.
+     * @param simulator The simulator whose cells are stepped.
+     * @param parallelism The number of threads to use; 1 runs the bands on
+     *                    the thread calling step.
+     */
+    public ParallelStepper(Simulator simulator, int parallelism) {
+        this.simulator = simulator;
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        int depth = simulator.getField().getDepth();
+        bands = new Band[(depth + BAND_ROWS - 1) / BAND_ROWS];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = new Band(i * BAND_ROWS, Math.min(depth, (i + 1) * BAND_ROWS));
+        }
+    }
+
+    /**
+     * Run the simulator's cells through a single generation.
+     */
+    public void step() {
+        Halo halo = simulator.getHalo();
+        // 1 if the first band is an odd band of the whole field
+        int parity = simulator.getField().getRowOffset() / BAND_ROWS % 2;
+        // bands after this one run on their own
+        int end = bands.length;
+        if (simulator.getField().getBoundary() == Field.TOROIDAL && bands.length % 2 == 1) {
+            end--;
+        }
+        for (int phase = ACT; phase <= REVIVE; phase++) {
+            long start = Metrics.start();
+            runBands(phase, parity, 2, end);
+            if (phase == ACT && halo != null) {
+                Metrics.stop(Metrics.ACT, start);
+                start = Metrics.start();
+                halo.exchangeEffects();
+                Metrics.stop(Metrics.HALO, start);
+                start = Metrics.start();
+            }
+            runBands(phase, 1 - parity, 2, end);
+            runBands(phase, end, 1, bands.length);
+            Metrics.stop(phase == ACT ? Metrics.ACT : Metrics.REVIVE, start);
+            if (phase == ACT && halo != null) {
+                start = Metrics.start();
+                halo.exchangeEffects();
+                Metrics.stop(Metrics.HALO, start);
+            }
+        }
+        long start = Metrics.start();
+        runBands(COMMIT, 0, 1, bands.length);
+        Metrics.stop(Metrics.UPDATE_STATE, start);
+        start = Metrics.start();
+        simulator.getField().getEpidemic().commit(simulator.getActiveTiles());
+        Metrics.stop(Metrics.DISEASE, start);
+        if (halo != null) {
+            start = Metrics.start();
+            halo.exchangeState();
+            Metrics.stop(Metrics.HALO, start);
+        }
+        if (simulator.getActiveTiles() != null) {
+            simulator.getActiveTiles().advance();
+        }
+
+        start = Metrics.start();
+        for (Band band : bands) {
+            simulator.replaceCells(band.revivedCells);
+        }
+        Metrics.stop(Metrics.LIST_UPDATE, start);
+    }
+
+    /**
+     * Stop the threads used by this stepper.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run one phase over every stride-th band from firstBand up to (but not
+     * including) endBand, and wait for all of them to finish.
+     */
+    private void runBands(int phase, int firstBand, int stride, int endBand) {
+        if (pool == null) {
+            for (int i = firstBand; i < endBand; i += stride) {
+                bands[i].run(phase);
+            }
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int i = firstBand; i < endBand; i += stride) {
+            Band band = bands[i];
+            tasks.add(new RecursiveAction() {
+                protected void compute() {
+                    band.run(phase);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * A run of whole rows of the field, stepped by one thread at a time.
+     */
+    private class Band {
+        private final int firstRow, lastRow;
+        private final Cell[] neighbours = new Cell[Field.NEIGHBOURHOOD_SIZE];
+        private final List<Cell> revivedCells = new ArrayList<>();
+
+        Band(int firstRow, int lastRow) {
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        void run(int phase) {
+            if (phase == COMMIT) {
+                simulator.commitRows(firstRow, lastRow);
+                return;
+            }
+            if (phase == REVIVE) {
+                revivedCells.clear();
+            }
+            Field field = simulator.getField();
+            ActiveTiles tiles = simulator.getActiveTiles();
+            for (int row = firstRow; row < lastRow; row++) {
+                for (int col = 0; col < field.getWidth(); col++) {
+                    if (tiles != null && !tiles.isActive(row, col)) {
+                        continue;
+                    }
+                    Cell cell = field.getObjectAt(row, col);
+                    if (phase == ACT) {
+                        cell.act();
+                    }
+                    else {
+                        revive(cell, tiles);
+                    }
+                }
+            }
+        }
+
+        private void revive(Cell cell, ActiveTiles tiles) {
+            if (!cell.isAlive()) {
+                Cell newCell = simulator.revive(cell, neighbours);
+                if (newCell != null) {
+                    newCell.setNextState(true);
+                    revivedCells.add(newCell);
+                    if (tiles != null) {
+                        tiles.markChanged(cell.getLocation().getRow(), cell.getLocation().getCol());
+                    }
+                }
+            }
+        }
+    }
+}
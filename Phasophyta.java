@@ -1,11 +1,5 @@
  
 
-import javafx.scene.paint.Color; 
-import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
-
 /**
  * Phasophyta's survival and reproducton thresholds decrease as it progresses through generations, simulating aging or a lifecycle.
  * This cell has a parasitic symbiotic relation with Chromacystis. It kills chromacystis to restore its own age (Benefits from relation)
@@ -19,13 +13,13 @@ import java.util.ArrayList;
 public class Phasophyta extends Cell {
     private int age;
     private boolean reproduce;
+    private boolean feeding; // whether a Chromacystis neighbour was found last time it acted
+    private int contact; // generations spent next to the Chromacystis in each direction, two bits per direction
     
-    private List<Cell> chromaCells;
-    private Map<Chromacystis, Integer> durationMap;
-    
-    public static final Color LIGHT_PURPLE = Color.rgb(255, 204, 255);
-    public static final Color PURPLE = Color.rgb(255, 0, 255);
-    public static final Color DARK_PURPLE = Color.rgb(153, 0, 153);
+    public static final int LIGHT_PURPLE = Colors.rgb(255, 204, 255);
+    public static final int PURPLE = Colors.rgb(255, 0, 255);
+    public static final int DARK_PURPLE = Colors.rgb(153, 0, 153);
+    private static final Species SPECIES = Species.get(Species.PHASOPHYTA);
     
     /**
      * Create a new Phasophyta.
@@ -33,10 +27,9 @@ public class Phasophyta extends Cell {
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Phasophyta(Field field, Location location, Color col) {
+    public Phasophyta(Field field, Location location, int col) {
         super(field, location, col);
         age = 0;
-        durationMap = new HashMap<>();
     }
     
     /**
@@ -44,10 +37,8 @@ public class Phasophyta extends Cell {
     */
     public void act() {
         age++;
-        neighbours = getField().getLivingNeighbours(getLocation(), Phasophyta.class); // updates neighbour list
-        updateInfectionState();
+        int neighbours = getField().countLivingNeighbours(getLocation(), SPECIES);
         updateDuration();
-        restoreAge();
         reproduce = false;
         
     
@@ -55,7 +46,7 @@ public class Phasophyta extends Cell {
             updateColor();
             
             if (age >= 1 && age <= 4) {
-                if (neighbours.size() >= 2) {
+                if (neighbours >= 2) {
                     setNextState(true); 
                 }
             }
@@ -63,7 +54,7 @@ public class Phasophyta extends Cell {
             else if (age >= 5 && age <= 14) {
                 reproduce = true;
                 
-                if (neighbours.size() >= 1) {
+                if (neighbours >= 1) {
                     setNextState(true); 
                 }
             }
@@ -105,59 +96,97 @@ public class Phasophyta extends Cell {
     }
     
     /**
-     * Certain conditions are checked to determine if the cell can be revived
-     * If the Phasophyta cell has 2 mature cells adjacent to it, it can be revived
-     * @return True if the cell can be revived
+     * A living Phasophyta ages every generation, and any Phasophyta next to
+     * a Chromacystis is counting down to killing it.
      */
-    public boolean canRevive(){
-        neighbours = getField().getLivingNeighbours(getLocation(), Phasophyta.class);
-        int matureNeighbours = 0;
-        if(neighbours != null) {
-            for(Cell cell: neighbours) {
-                if (((Phasophyta) cell).canReproduce()) {
-                    matureNeighbours++;
-                }
-            }
-        }
-        return matureNeighbours == 2;
+    public boolean isVolatile() {
+        return isAlive() || feeding || super.isVolatile();
     }
     
     /**
-     * Updates the map storing the duration of symbiotic relation between the cell and each
-     * of its Chromacystis neighbours.
+     * @return The Phasophyta species.
      */
-    private void updateDuration() {
-        chromaCells = getField().getLivingNeighbours(getLocation(), Chromacystis.class); // list of neighbouring chromacystis cells (victims)
-        
-        if(chromaCells.size() > 0) {
-            for(Cell chroma: chromaCells) {
-                Integer duration = durationMap.get(chroma);
-                durationMap.put((Chromacystis)chroma, duration == null ? 1: duration + 1);
-            }
-        }
-        
+    public Species getSpecies() {
+        return SPECIES;
     }
     
     /**
-     * Attempts to restore the cell's age
-     * Cell's age decreases by 2 for each successful attempt
+     * Counts the generations each living Chromacystis neighbour has spent next
+     * to the cell. Once that reaches 3 the Chromacystis is killed, and the
+     * cell's age decreases by 2.
      */
-    private void restoreAge() {
-        if(durationMap.keySet() != null) {
-            
-            List<Cell> cellsToRemove = new ArrayList<>();
-            for(Chromacystis chroma: durationMap.keySet()) {
-                Integer duration = durationMap.get(chroma);
-                
+    private void updateDuration() {
+        feeding = false;
+        for(int d = 0; d < Field.NEIGHBOURHOOD_SIZE; d++) {
+            Cell chroma = getField().getNeighbour(getLocation(), d); // neighbouring chromacystis cells (victims)
+            if(chroma != null && Species.of(chroma) == Species.CHROMACYSTIS && chroma.isAlive() && !chroma.isInfected()) {
+                feeding = true;
+                int duration = ((contact >> (2 * d)) & 3) + 1;
                 if(duration >= 3) {
                     age = age - 2;
                     chroma.setNextState(false);
                     chroma.setKilled();
-                    cellsToRemove.add(chroma);
+                    duration = 0;
                 }
+                contact = (contact & ~(3 << (2 * d))) | (duration << (2 * d));
             }
-            
-            durationMap.keySet().removeAll(cellsToRemove);
+        }
+    }
+    
+    /**
+     * A new cell has taken the neighbouring position, so the contact with
+     * whatever was there before is forgotten.
+     */
+    protected void neighbourReplaced(int direction) {
+        contact &= ~(3 << (2 * direction));
+    }
+    
+    int getMirrorFlags() {
+        return super.getMirrorFlags() | (reproduce ? Snapshot.REPRODUCE : 0);
+    }
+    
+    void mirror(int flags) {
+        super.mirror(flags);
+        reproduce = (flags & Snapshot.REPRODUCE) != 0;
+    }
+    
+    void save(Snapshot snapshot, int index) {
+        super.save(snapshot, index);
+        snapshot.setPhasophyta(index, age, contact, reproduce, feeding);
+    }
+    
+    void restore(Snapshot snapshot, int index) {
+        super.restore(snapshot, index);
+        age = snapshot.getAge(index);
+        contact = snapshot.getContact(index);
+        reproduce = snapshot.hasFlag(index, Snapshot.REPRODUCE);
+        feeding = snapshot.hasFlag(index, Snapshot.FEEDING);
+    }
+    
+    /**
+     * The rules of the Phasophyta species. Survival depends on the cell's
+     * age, so there is no survival table; a dead position comes to life
+     * when exactly 2 of its neighbours are mature Phasophyta.
+     */
+    static class Rules extends Species {
+        Rules() {
+            super("Phasophyta", null, null);
+        }
+        
+        public Cell create(Field field, Location location) {
+            return new Phasophyta(field, location, Simulator.LIGHT_PURPLE);
+        }
+        
+        public boolean canRevive(Field field, Location location) {
+            int matureNeighbours = 0;
+            for(int d = 0; d < Field.NEIGHBOURHOOD_SIZE; d++) {
+                Cell cell = field.getNeighbour(location, d);
+                if (cell != null && cell.getSpecies() == this && cell.isAlive() && !cell.isInfected()
+                        && ((Phasophyta) cell).canReproduce()) {
+                    matureNeighbours++;
+                }
+            }
+            return matureNeighbours == 2;
         }
     }
 }
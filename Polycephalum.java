@@ -1,10 +1,5 @@
  
 
-import javafx.scene.paint.Color; 
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Random;
-
 /**
  * Polycephalum is a non-deterministic micro-organism
  * ========================================================================================
@@ -20,10 +15,11 @@ import java.util.Random;
  */
 
 public class Polycephalum extends Cell {
-    public static final Color DARK_CYAN = Color.rgb(0, 204, 204);
-    public static final Color CYAN = Color.rgb(0, 255, 255);
+    public static final int DARK_CYAN = Colors.rgb(0, 204, 204);
+    public static final int CYAN = Colors.rgb(0, 255, 255);
     
     private static final double CHANGE_COLOUR_PROBABILITY = 0.65;
+    private static final Species SPECIES = Species.get(Species.POLYCEPHALUM);
     
     /**
      * Create a new Polycephalum.
@@ -31,7 +27,7 @@ public class Polycephalum extends Cell {
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Polycephalum(Field field, Location location, Color col) {
+    public Polycephalum(Field field, Location location, int col) {
         super(field, location, col);
     }
 
@@ -39,34 +35,32 @@ public class Polycephalum extends Cell {
     * This is how the Polycephalum decides if it's alive or not
     */
     public void act() {
-        neighbours = getField().getLivingNeighbours(getLocation(), Polycephalum.class); // updates neighbour list
-        updateInfectionState();
-        Random rand = Randomizer.getRandom();
+        int neighbours = getField().countLivingNeighbours(getLocation(), SPECIES);
         double probability;
         
         if(isAlive() && !isInfected()) {
             setNextState(false);
             
-            probability = rand.nextDouble();
+            probability = getField().random(getLocation(), Randomizer.SURVIVAL);
             if(probability <= 0.20) {
-                if(neighbours.size() == 1) {
+                if(neighbours == 1) {
                     setNextState(true); // 20% of the time it survives if it has 1 neighbour
                 }
             }
             
             else if(probability <= 0.50) {
-                if(neighbours.size() == 2) {
+                if(neighbours == 2) {
                     setNextState(true); // 30% of the time it survives only if it has 2 neighbours
                 }
             }
             
             else {
-                if(neighbours.size() == 3) {
+                if(neighbours == 3) {
                     setNextState(true); // 50% of the time it survives only if it has 3 neighbours
                 }
             }
             
-            probability = rand.nextDouble();
+            probability = getField().random(getLocation(), Randomizer.COLOUR_CHANGE);
             if(probability <= CHANGE_COLOUR_PROBABILITY) {
                 updateColor();
                 setNextState(true);
@@ -77,28 +71,53 @@ public class Polycephalum extends Cell {
         }
     }
     
-    public boolean canRevive() {
-        neighbours = getField().getLivingNeighbours(getLocation(), Mycoplasma.class); // updates neighbour list
-        Random rand = Randomizer.getRandom();
-        
-        if(rand.nextDouble() <= 75) {
-            return (neighbours.size() == 2); // 75% of the time it revives if it has exactly 2 neighbours
-        }
-        
-        else {
-            return false; // 25% of the time it cannot revive regardless of the conditions
-        }
+    /**
+     * @return The Polycephalum species.
+     */
+    public Species getSpecies() {
+        return SPECIES;
+    }
+    
+    /**
+     * A living Polycephalum behaves randomly, so it may change at any time.
+     */
+    public boolean isVolatile() {
+        return isAlive() || super.isVolatile();
     }
     
     private void updateColor() {
-        if(getColor().equals(DARK_CYAN)) {
+        if(getColor() == DARK_CYAN) {
             setColor(CYAN);
         }
-        else if(getColor().equals(CYAN)) {
+        else if(getColor() == CYAN) {
             setColor(DARK_CYAN);
         }
     }
-}
-
-    
     
+    /**
+     * The rules of the Polycephalum species. Survival is random, so there
+     * is no survival table; revival depends on the Mycoplasma around the
+     * dead position and on chance.
+     */
+    static class Rules extends Species {
+        Rules() {
+            super("Polycephalum", null, null);
+        }
+        
+        public Cell create(Field field, Location location) {
+            return new Polycephalum(field, location, Simulator.DARK_CYAN);
+        }
+        
+        public boolean canRevive(Field field, Location location) {
+            int neighbours = field.countLivingNeighbours(location, Species.get(Species.MYCOPLASMA));
+            
+            if(field.random(location, Randomizer.REVIVAL) <= 75) {
+                return (neighbours == 2); // 75% of the time it revives if it has exactly 2 neighbours
+            }
+            
+            else {
+                return false; // 25% of the time it cannot revive regardless of the conditions
+            }
+        }
+    }
+}
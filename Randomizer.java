@@ -1,6 +1,7 @@
  
 
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * Provide control over the randomization of the simulation. By using the
@@ -8,6 +9,13 @@ import java.util.Random;
  * (which helps with testing). Set 'useShared' to false to get different random
  * behaviour every time.
  *
+ * The simulation itself draws its random numbers with the counter based
+ * methods at the bottom: each value is a hash of a seed, the generation,
+ * the position in the field and a draw number naming the decision being
+ * made. Nothing is shared or allocated, and a value does not depend on the
+ * order in which cells are visited or on which thread visits them, so a
+ * run is fully determined by its seed.
+ *
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
  */
@@ -17,6 +25,22 @@ public class Randomizer {
     private static final int SEED = 1111;
     private static final Random rand = new Random(SEED);
     private static final boolean useShared = false;
+    
+    // seed used by new simulations
+    private static long seed = useShared ? SEED : new SplittableRandom().nextLong();
+    
+    // draw numbers, one for each random decision made about a position in a generation
+    public static final int SPREAD = 0; // one for each direction, up to SPREAD + 7
+    public static final int SURVIVAL = 8;
+    public static final int COLOUR_CHANGE = 9;
+    public static final int REVIVAL = 10;
+    public static final int REVIVE_ORDER = 16; // one for each neighbour tried, up to REVIVE_ORDER + 7
+    public static final int SPECIES = 24;
+    public static final int INFECTED = 25;
+    public static final int ALIVE = 26;
+    public static final int EVENT_SAMPLE = 27; // whether a revive attempt is recorded, see SimulationEvents
+    
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
 
     /**
      * Provide a random generator.
@@ -41,4 +65,75 @@ public class Randomizer {
             rand.setSeed(SEED);
         }
     }
+
+    /**
+     * Return the seed that new simulations start from.
+     * @return The seed.
+     */
+    public static long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed that new simulations start from.
+     * @param newSeed The seed.
+     */
+    public static void setSeed(long newSeed) {
+        seed = newSeed;
+    }
+
+    /**
+     * Return a random number between 0 (inclusive) and 1 (exclusive) for one
+     * decision. The same arguments always give the same number.
+     * @param seed The seed of the simulation.
+     * @param generation The generation the decision is made in.
+     * @param position The index of the position, row * width + col.
+     * @param draw The draw number of the decision.
+     * @return The random number.
+     */
+    public static double nextDouble(long seed, int generation, int position, int draw) {
+        return (hash(seed, generation, position, draw) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Return a random number between 0 (inclusive) and bound (exclusive)
+     * for one decision. The same arguments always give the same number.
+     * @param seed The seed of the simulation.
+     * @param generation The generation the decision is made in.
+     * @param position The index of the position, row * width + col.
+     * @param draw The draw number of the decision.
+     * @param bound The upper bound, which must be positive.
+     * @return The random number.
+     */
+    public static int nextInt(long seed, int generation, int position, int draw, int bound) {
+        return (int) (((hash(seed, generation, position, draw) >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Return the Zobrist key of a species living at a position: random
+     * bits that are the same in every run, whatever the seed. A field's
+     * state hash is the exclusive or of the keys of its living cells.
+     * @param position The index of the position, row * width + col.
+     * @param species The species id.
+     * @return The key.
+     */
+    public static long zobristKey(int position, int species) {
+        return mix(mix(position * GOLDEN_GAMMA) + (species + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Mix the key of a decision into 64 random bits, using the SplitMix64
+     * finaliser after each part of the key.
+     */
+    private static long hash(long seed, int generation, int position, int draw) {
+        long z = mix(seed + generation * GOLDEN_GAMMA);
+        z = mix(z + position * GOLDEN_GAMMA);
+        return mix(z + draw * GOLDEN_GAMMA);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 }
@@ -0,0 +1,207 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a simulation too big for one machine on several worker processes.
+ * The field is cut into shards, bands of whole rows, each simulated by a
+ * ShardWorker. The workers exchange the rows along their borders every
+ * generation (see Halo), and the coordinator adds up the population the
+ * workers report after every generation in a FieldStats.
+ *
+ * The shards are made of the same bands of rows as a ParallelStepper's, so
+ * a sharded run is the same as running the whole field on several threads
+ * of one machine. The field is clipped at its edges.
+ *
+ * Usage: java ShardCoordinator workers [generations] [depth] [width] [-port n] [-spawn]
+ *                              [-threads n] [-tiles] [-report n] [-seed n]
+ *   workers     the number of workers to wait for
+ *   -port n     listen for the workers on port n (by default any free port)
+ *   -spawn      start the workers as processes on this machine
+ *   -threads n  have each worker step its shard on n threads
+ *   -tiles      have the workers skip the parts of the field where nothing is happening
+ *   -report n   also print the population every n generations
+ *   -seed n     start from seed n, to repeat an earlier run
+ */
+
+public class ShardCoordinator {
+    private static final int DEFAULT_GENERATIONS = 1000;
+    private static final int BAND_ROWS = Field.STRIPE_ROWS; // the height of the bands of a ParallelStepper
+
+    /**
+     * Run a sharded simulation.
+     * @param args The command line arguments, as described above.
+     * @throws IOException If a worker cannot be reached.
+     */
+    public static void main(String[] args) throws IOException {
+        int workers = 0;
+        int generations = DEFAULT_GENERATIONS;
+        int depth = Simulator.DEFAULT_DEPTH;
+        int width = Simulator.DEFAULT_WIDTH;
+        int port = 0;
+        boolean spawn = false;
+        int threads = 1;
+        boolean tiles = false;
+        int report = 0;
+
+        int position = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-spawn")) {
+                spawn = true;
+            }
+            else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-tiles")) {
+                tiles = true;
+            }
+            else if (args[i].equals("-report")) {
+                report = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-seed")) {
+                Randomizer.setSeed(Long.parseLong(args[++i]));
+            }
+            else if (position == 0) {
+                workers = Integer.parseInt(args[i]);
+                position++;
+            }
+            else if (position == 1) {
+                generations = Integer.parseInt(args[i]);
+                position++;
+            }
+            else if (position == 2) {
+                depth = Integer.parseInt(args[i]);
+                position++;
+            }
+            else if (position == 3) {
+                width = Integer.parseInt(args[i]);
+                position++;
+            }
+            else {
+                System.err.println("Unexpected argument: " + args[i]);
+                System.exit(1);
+            }
+        }
+        int bands = (depth + BAND_ROWS - 1) / BAND_ROWS;
+        if (workers < 1 || workers > bands) {
+            System.err.println("The number of workers must be from 1 to " + bands
+                + ", the number of bands of " + BAND_ROWS + " rows");
+            System.exit(1);
+        }
+
+        try (ServerSocket listener = new ServerSocket(port)) {
+            System.out.println("Waiting for " + workers + " workers on port " + listener.getLocalPort());
+            List<Process> processes = new ArrayList<>();
+            if (spawn) {
+                for (int i = 0; i < workers; i++) {
+                    processes.add(spawnWorker(listener.getLocalPort()));
+                }
+            }
+
+            Link[] links = new Link[workers];
+            for (int i = 0; i < workers; i++) {
+                links[i] = new Link(listener.accept());
+            }
+            long seed = Randomizer.getSeed();
+            for (int i = 0; i < workers; i++) {
+                // each shard gets a share of the bands
+                int firstRow = (int) ((long) bands * i / workers) * BAND_ROWS;
+                int lastRow = Math.min(depth, (int) ((long) bands * (i + 1) / workers) * BAND_ROWS);
+                DataOutputStream out = links[i].out;
+                out.writeInt(i);
+                out.writeInt(workers);
+                out.writeInt(firstRow);
+                out.writeInt(lastRow - firstRow);
+                out.writeInt(width);
+                out.writeLong(seed);
+                out.writeInt(threads);
+                out.writeBoolean(tiles);
+                out.writeInt(generations);
+                out.writeUTF(i > 0 ? links[i - 1].socket.getInetAddress().getHostAddress() : "");
+                out.writeInt(i > 0 ? links[i - 1].listenPort : -1);
+                out.flush();
+            }
+            System.out.println("Started " + workers + " shards of a " + depth + "x" + width
+                + " field (seed " + seed + ")");
+
+            long start = System.nanoTime();
+            FieldStats stats = new FieldStats();
+            int generation = 0;
+            for (int g = 0; g < generations; g++) {
+                stats.reset();
+                int infected = 0, newInfections = 0, deaths = 0;
+                for (Link link : links) {
+                    generation = link.in.readInt();
+                    int[] population = new int[link.in.readInt()];
+                    for (int species = 0; species < population.length; species++) {
+                        population[species] = link.in.readInt();
+                    }
+                    stats.addCounts(population);
+                    infected += link.in.readInt();
+                    newInfections += link.in.readInt();
+                    deaths += link.in.readInt();
+                }
+                if (report > 0 && generation % report == 0) {
+                    System.out.println("Generation " + generation + ": " + stats.getPopulationDetails()
+                        + "(" + infected + " infected, " + newInfections + " new, " + deaths + " killed)");
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            for (Link link : links) {
+                link.socket.close();
+            }
+            for (Process process : processes) {
+                try {
+                    process.waitFor();
+                }
+                catch (InterruptedException ie) {
+                    // stop waiting
+                }
+            }
+            System.out.printf("%d generations in %.3f s: %.1f generations/s, %.3g cells/s%n",
+                generations, seconds, generations / seconds, (double) generations * depth * width / seconds);
+            System.out.println("Population: " + stats.getPopulationDetails());
+        }
+    }
+
+    /**
+     * Start a worker process on this machine, with the same Java and class
+     * path as the coordinator.
+     */
+    private static Process spawnWorker(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "ShardWorker", "localhost", Integer.toString(port))
+            .inheritIO()
+            .start();
+    }
+
+    /**
+     * The connection to one worker.
+     */
+    private static class Link {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final int listenPort; // where the worker below this one connects to it
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            listenPort = in.readInt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * One process of a sharded simulation. It connects to a ShardCoordinator,
+ * which gives it a band of rows of the field to simulate, connects to the
+ * workers simulating the bands above and below its own, and then runs the
+ * generations, exchanging border rows with them through a Halo and
+ * reporting the population of its band to the coordinator after every
+ * generation.
+ *
+ * Usage: java ShardWorker host port
+ *   host port  where the coordinator is listening
+ */
+
+public class ShardWorker {
+    private final Socket coordinator;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private Simulator simulator;
+
+    /**
+     * Run a worker until the coordinator's run is finished.
+     * @param args The command line arguments, as described above.
+     * @throws IOException If the coordinator or another worker cannot be reached.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java ShardWorker host port");
+            System.exit(1);
+        }
+        new ShardWorker(args[0], Integer.parseInt(args[1])).run();
+    }
+
+    /**
+     * Connect to a coordinator.
+     * @param host The coordinator's host.
+     * @param port The coordinator's port.
+     * @throws IOException If the coordinator cannot be reached.
+     */
+    public ShardWorker(String host, int port) throws IOException {
+        coordinator = new Socket(host, port);
+        coordinator.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+    }
+
+    /**
+     * Take part in the coordinator's run: set up the shard the coordinator
+     * hands out, run every generation and report each to the coordinator.
+     * @throws IOException If the coordinator or another worker cannot be reached.
+     */
+    public void run() throws IOException {
+        Halo halo;
+        int threads;
+        int generations;
+        try (ServerSocket listener = new ServerSocket(0)) {
+            out.writeInt(listener.getLocalPort()); // where the worker below connects
+            out.flush();
+
+            int shard = in.readInt();
+            int shardCount = in.readInt();
+            int firstRow = in.readInt();
+            int depth = in.readInt();
+            int width = in.readInt();
+            long seed = in.readLong();
+            threads = in.readInt();
+            boolean tiles = in.readBoolean();
+            generations = in.readInt();
+            String upHost = in.readUTF();
+            int upPort = in.readInt();
+
+            simulator = new Simulator(depth, width);
+            simulator.getField().setRowOffset(firstRow);
+            simulator.setSeed(seed);
+            simulator.reset();
+            simulator.setActiveTileTracking(tiles);
+
+            // the worker above listens for this one, and this one for the worker below
+            Socket up = shard > 0 ? new Socket(upHost, upPort) : null;
+            Socket down = shard < shardCount - 1 ? listener.accept() : null;
+            halo = new Halo(simulator, up, down);
+        }
+        simulator.setHalo(halo);
+        simulator.setParallelism(threads);
+        try {
+            halo.exchangeState();
+            for (int i = 0; i < generations; i++) {
+                simulator.simOneGeneration();
+                report();
+            }
+        }
+        finally {
+            simulator.setHalo(null);
+            simulator.setParallelism(1);
+            halo.close();
+            coordinator.close();
+        }
+    }
+
+    /**
+     * Tell the coordinator the population of the shard after a generation.
+     */
+    private void report() throws IOException {
+        Epidemic epidemic = simulator.getField().getEpidemic();
+        out.writeInt(simulator.getGeneration());
+        out.writeInt(Species.getCount());
+        for (int species = 0; species < Species.getCount(); species++) {
+            out.writeInt(simulator.getPopulation(species));
+        }
+        out.writeInt(epidemic.getInfectedCount());
+        out.writeInt(epidemic.getNewInfections());
+        out.writeInt(epidemic.getDeaths());
+        out.flush();
+    }
+
+    /**
+     * @return The simulator of the worker's shard, once the run has started.
+     */
+    public Simulator getSimulator() {
+        return simulator;
+    }
+}
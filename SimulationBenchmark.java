@@ -0,0 +1,185 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the hot paths of the simulation: Field.adjacentLocations,
+ * Field.getLivingNeighbours, Field.countLivingNeighbours, Simulator.revive,
+ * Simulator.simOneGeneration and FieldStats counting. Each one is run on
+ * several grid sizes and starting densities, and the throughput, the bytes
+ * allocated and the garbage collection work are reported for each.
+ *
+ * Run with no arguments to measure every grid size, or name the sizes to
+ * measure (small, 1000, 4000). The 4000x4000 grid holds sixteen million
+ * cells and needs a large heap, e.g. java -Xmx12g SimulationBenchmark 4000
+ *
+ * The argument "scaling" instead times simOneGeneration on fields of one to
+ * ten million cells and prints the time per cell, which stays flat when a
+ * generation's cost grows linearly with the size of the field.
+ */
+
+public class SimulationBenchmark {
+    private static final int[][] SIZES = {
+        {Simulator.DEFAULT_DEPTH, Simulator.DEFAULT_WIDTH}, {1000, 1000}, {4000, 4000}
+    };
+    private static final String[] SIZE_NAMES = {"small", "1000", "4000"};
+    private static final double[] DENSITIES = {0.1, 0.25, 0.5};
+
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 3000;
+    private static final int SAMPLE_SIZE = 4096; // number of locations the per-cell benchmarks cycle through
+
+    private static final int SCALING_DEPTH = 1000;
+    private static final int[] SCALING_WIDTHS = {1000, 2500, 5000, 10000}; // one to ten million cells
+    private static final int SCALING_GENERATIONS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static volatile Object sink; // keeps results alive so the work is not optimised away
+
+    /**
+     * Run the benchmarks.
+     * @param args The grid sizes to measure; all of them if none are given.
+     */
+    public static void main(String[] args) {
+        if (contains(args, "scaling")) {
+            runScaling();
+            return;
+        }
+        System.out.printf("%-22s %-20s %14s %14s %12s %6s %8s%n",
+            "benchmark", "grid", "ops/s", "bytes/op", "MB/s alloc", "gcs", "gc ms");
+        for (int i = 0; i < SIZES.length; i++) {
+            if (args.length == 0 || contains(args, SIZE_NAMES[i])) {
+                for (double density : DENSITIES) {
+                    runAll(SIZES[i][0], SIZES[i][1], density);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run every benchmark against one grid.
+     */
+    private static void runAll(int depth, int width, double density) {
+        String grid = depth + "x" + width + " @" + density;
+        Simulator simulator = new Simulator(depth, width);
+        simulator.setAliveProbability(density);
+        simulator.reset();
+        Field field = simulator.getField();
+
+        Random rand = new Random(42);
+        Location[] locations = new Location[SAMPLE_SIZE];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = new Location(rand.nextInt(depth), rand.nextInt(width));
+        }
+        List<Cell> deadCells = new ArrayList<>();
+        for (int i = 0; i < SAMPLE_SIZE * 16 && deadCells.size() < SAMPLE_SIZE; i++) {
+            Cell cell = field.getObjectAt(rand.nextInt(depth), rand.nextInt(width));
+            if (!cell.isAlive()) {
+                deadCells.add(cell);
+            }
+        }
+
+        int[] next = new int[1];
+        measure("adjacentLocations", grid, () -> {
+            sink = field.adjacentLocations(locations[next[0]++ & (SAMPLE_SIZE - 1)]);
+        });
+        measure("getLivingNeighbours", grid, () -> {
+            sink = field.getLivingNeighbours(locations[next[0]++ & (SAMPLE_SIZE - 1)], Mycoplasma.class);
+        });
+        Species mycoplasma = Species.get(Species.MYCOPLASMA);
+        measure("countLivingNeighbours", grid, () -> {
+            sink = field.countLivingNeighbours(locations[next[0]++ & (SAMPLE_SIZE - 1)], mycoplasma);
+        });
+        if (!deadCells.isEmpty()) {
+            measure("revive", grid, () -> {
+                Cell cell = deadCells.get(next[0]++ % deadCells.size());
+                sink = simulator.revive(cell);
+                field.place(cell, cell.getLocation()); // undo a successful revival
+            });
+        }
+        FieldStats stats = new FieldStats();
+        measure("FieldStats", grid, () -> {
+            stats.reset();
+            sink = stats.getPopulationDetails(field);
+        });
+        measure("simOneGeneration", grid, simulator::simOneGeneration);
+    }
+
+    /**
+     * Time simOneGeneration on ever larger fields.
+     */
+    private static void runScaling() {
+        System.out.printf("%-22s %-20s %14s %14s %12s%n",
+            "benchmark", "grid", "cells", "ms/gen", "ns/cell");
+        for (int width : SCALING_WIDTHS) {
+            Simulator simulator = new Simulator(SCALING_DEPTH, width);
+            simulator.simOneGeneration(); // warm up
+            long start = System.nanoTime();
+            for (int i = 0; i < SCALING_GENERATIONS; i++) {
+                simulator.simOneGeneration();
+            }
+            double nanos = (double) (System.nanoTime() - start) / SCALING_GENERATIONS;
+            long cells = (long) SCALING_DEPTH * width;
+            System.out.printf("%-22s %-20s %14d %14.1f %12.1f%n", "simOneGeneration",
+                SCALING_DEPTH + "x" + width, cells, nanos / 1e6, nanos / cells);
+            simulator = null;
+            System.gc();
+        }
+    }
+
+    /**
+     * Warm up an operation, then run it for a fixed time and print the results.
+     */
+    private static void measure(String name, String grid, Runnable op) {
+        long end = System.currentTimeMillis() + WARMUP_MILLIS;
+        do {
+            op.run();
+        } while (System.currentTimeMillis() < end);
+
+        long threadId = Thread.currentThread().getId();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        end = System.currentTimeMillis() + MEASURE_MILLIS;
+        long ops = 0;
+        do {
+            op.run();
+            ops++;
+        } while (System.currentTimeMillis() < end);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        System.out.printf("%-22s %-20s %14.1f %14.1f %12.1f %6d %8d%n",
+            name, grid, ops / seconds, (double) allocated / ops,
+            allocated / seconds / (1024 * 1024), gcCount() - gcCount, gcTime() - gcTime);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static boolean contains(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
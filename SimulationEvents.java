@@ -0,0 +1,136 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The events the simulation gives JDK Flight Recorder, so a recording shows
+ * what the simulation was doing next to the JVM's own events (garbage
+ * collection, compilation and so on). Start a recording with, for example,
+ * java -XX:StartFlightRecording=filename=run.jfr BatchRunner 1000
+ * and open it in JDK Mission Control, or print the events with
+ * jfr print --categories Life run.jfr
+ *
+ * When no recording is running the events are never committed, and the JIT
+ * compiler removes them along with the code that fills them in. Rows are
+ * rows of the whole field, so the events of a sharded run line up.
+ */
+
+public class SimulationEvents {
+    private static final double REVIVE_SAMPLE = 1.0 / 64; // the share of revive attempts recorded
+
+    /**
+     * The running of one generation.
+     */
+    @Name("life.Generation")
+    @Label("Generation")
+    @Category("Life")
+    @Description("A generation of the simulation, from the start of its disease step to its commit")
+    @StackTrace(false)
+    static class Generation extends Event {
+        @Label("Generation")
+        int generation;
+
+        @Label("Live Cells")
+        int liveCount;
+
+        @Label("Stepped By")
+        @Description("compact, parallel, tiles or cells")
+        String stepping;
+    }
+
+    /**
+     * An attempt to bring a dead position with living neighbours back to
+     * life. Only a sample of the attempts is recorded; see isSampled.
+     */
+    @Name("life.Revive")
+    @Label("Revive")
+    @Category("Life")
+    @Description("A sampled attempt to bring a dead position back as one of its neighbours' species")
+    @StackTrace(false)
+    static class Revive extends Event {
+        @Label("Generation")
+        int generation;
+
+        @Label("Row")
+        int row;
+
+        @Label("Column")
+        int col;
+
+        @Label("Living Neighbours")
+        int neighbours;
+
+        @Label("Species Tried")
+        int tried;
+
+        @Label("Species")
+        @Description("The species the position came back as, or null")
+        String species;
+
+        @Label("Revived")
+        boolean revived;
+
+        /**
+         * Fill in and commit the event, once the attempt is over.
+         * @param field The field of the position.
+         * @param location The position.
+         * @param neighbours The number of living neighbours.
+         * @param tried The number of their species tried.
+         * @param species The species the position came back as, or null.
+         */
+        void record(Field field, Location location, int neighbours, int tried, Species species) {
+            generation = field.getGeneration();
+            row = location.getRow() + field.getRowOffset();
+            col = location.getCol();
+            this.neighbours = neighbours;
+            this.tried = tried;
+            this.species = species == null ? null : species.getName();
+            revived = species != null;
+            commit();
+        }
+    }
+
+    /**
+     * A living cell catching the disease from a neighbour.
+     */
+    @Name("life.Infection")
+    @Label("Infection")
+    @Category("Life")
+    @Description("A cell catching the disease from an infected neighbour of its species")
+    @StackTrace(false)
+    static class Infection extends Event {
+        @Label("Generation")
+        int generation;
+
+        @Label("Species")
+        String species;
+
+        @Label("Row")
+        int row;
+
+        @Label("Column")
+        int col;
+
+        @Label("Source Row")
+        int sourceRow;
+
+        @Label("Source Column")
+        int sourceCol;
+    }
+
+    /**
+     * Decide whether an attempt to revive a position is one of the sample
+     * recorded. The decision is keyed like the simulation's random numbers,
+     * so it is the same on any number of threads and leaves the simulation
+     * unchanged.
+     * @param field The field of the position.
+     * @param location The position.
+     * @return true if the attempt should be recorded.
+     */
+    static boolean isSampled(Field field, Location location) {
+        return field.random(location, Randomizer.EVENT_SAMPLE) < REVIVE_SAMPLE;
+    }
+}
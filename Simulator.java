@@ -1,8 +1,5 @@
-import javafx.scene.paint.Color; 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
 import java.lang.reflect.Constructor;
 
 
@@ -15,22 +12,39 @@ import java.lang.reflect.Constructor;
  */
 
 public class Simulator {
-    private List<Cell> cells;
+    private List<Cell> cells; // the cell at each position, in row * width + col order
     private Field field;
+    private CompactField compactField; // used instead of the cells when not null
+    private ParallelStepper stepper; // steps the cells, on several threads when parallelism > 1
+    private ActiveTiles tiles; // only the active tiles are stepped when not null
+    private Halo halo; // exchanges the border rows with other shards when not null
+    private int parallelism = 1;
+    private final HashLife hashLife = new HashLife();
+    private int hashLifeWait; // generations to step before trying HashLife again
+    private int hashLifeBackoff = 1; // the wait after the next failed try
+    private final Cell[] neighbours = new Cell[Field.NEIGHBOURHOOD_SIZE]; // reused by revive
+    private final List<GenerationListener> listeners = new ArrayList<>();
+    private long seed = Randomizer.getSeed(); // every random decision follows from this
     private int generation;
+    private double aliveProbability = CELL_ALIVE_PROB;
+    private int boundary = Field.CLIPPED;
     
+    public static final int DEFAULT_DEPTH = 80;
+    public static final int DEFAULT_WIDTH = 100;
+
     private static final double DISEASE_PROB = 0.05; // cells have a 5% chance to spawn infected with disease
     private static final double CELL_ALIVE_PROB = 0.25;
+    private static final int MAX_HASHLIFE_BACKOFF = 64; // the longest wait between tries of HashLife
     
-    public static final Color LIGHT_PURPLE = Color.rgb(255, 180, 255);
-    public static final Color DARK_CYAN = Color.rgb(0, 225, 225);
-    public static final Color CYAN = Color.rgb(100, 255, 255);
+    public static final int LIGHT_PURPLE = Colors.rgb(255, 180, 255);
+    public static final int DARK_CYAN = Colors.rgb(0, 225, 225);
+    public static final int CYAN = Colors.rgb(100, 255, 255);
 
     /**
      * Construct a simulation field with default size.
      */
     public Simulator() {
-        this(SimulatorView.GRID_HEIGHT, SimulatorView.GRID_WIDTH);
+        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
     }
 
     /**
@@ -39,8 +53,40 @@ public class Simulator {
      * @param width Width of the field. Must be greater than zero.
      */
     public Simulator(int depth, int width) {
-        cells = new ArrayList<>();
+        this(depth, width, false);
+    }
+
+    /**
+     * Create a simulation field with the given size.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param compact Whether to store the field in a CompactField rather
+     *                than as Cell objects.
+     */
+    public Simulator(int depth, int width, boolean compact) {
+        this(depth, width, compact, Field.CLIPPED);
+    }
+
+    /**
+     * Create a simulation field with the given size and boundary.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param compact Whether to store the field in a CompactField rather
+     *                than as Cell objects. A CompactField is always clipped.
+     * @param boundary What lies beyond the edges: Field.CLIPPED,
+     *                 Field.TOROIDAL or Field.DEAD_BORDER.
+     */
+    public Simulator(int depth, int width, boolean compact, int boundary) {
+        if (compact && boundary != Field.CLIPPED) {
+            throw new IllegalArgumentException("A CompactField can only be clipped");
+        }
+        cells = new ArrayList<>(depth * width);
         field = new Field(depth, width);
+        stepper = new ParallelStepper(this, parallelism);
+        this.boundary = boundary;
+        if (compact) {
+            compactField = new CompactField(depth, width);
+        }
         reset();
     }
 
@@ -49,87 +95,339 @@ public class Simulator {
      * Iterate over the whole field updating the state of each life form.
      */
     public void simOneGeneration() {
+        SimulationEvents.Generation event = new SimulationEvents.Generation();
+        event.begin();
         generation++;
-        List<Cell> deadCells = new ArrayList<>();
-        List<Cell> revivedCells = new ArrayList<>();
-        for (Iterator<Cell> it = cells.iterator(); it.hasNext(); ) {
-            Cell cell = it.next();
-            
-            cell.act(); // determines the cell's next state
-            
-            if(!cell.isAlive()) {
-                
-                Cell newCell = revive(cell); // tries to revive a dead cell
-                
-                if(newCell != null) {
-                    revivedCells.add(newCell);
-                    deadCells.add(cell);
-                    newCell.setNextState(true);
+        field.setGeneration(generation);
+        if (compactField != null) {
+            compactField.step();
+        }
+        else {
+            long start = Metrics.start();
+            field.getEpidemic().step();
+            Metrics.stop(Metrics.DISEASE, start);
+            stepper.step();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.generation = generation;
+            event.liveCount = getLiveCount();
+            event.stepping = compactField != null ? "compact" : parallelism > 1 ? "parallel"
+                : tiles != null ? "tiles" : "cells";
+            event.commit();
+        }
+        generationFinished();
+    }
+
+    /**
+     * Update the state of the cells in a range of rows, recording which of
+     * them changed when only the active tiles are being stepped.
+     * @param firstRow The first row to update.
+     * @param lastRow The row after the last one to update.
+     */
+    void commitRows(int firstRow, int lastRow) {
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                if (tiles == null) {
+                    field.getObjectAt(row, col).updateState();
+                }
+                else if (tiles.isActive(row, col)) {
+                    Cell cell = field.getObjectAt(row, col);
+                    if (cell.updateState() || cell.isVolatile()) {
+                        tiles.markChanged(row, col);
+                    }
                 }
-                
             }
         }
-        
-        // updates the list of cells 
-        cells.addAll(revivedCells);
-        cells.removeAll(deadCells);
+    }
+
+    /**
+     * Choose whether to step only the parts of the field where something
+     * is happening. The field is cut into tiles, and a tile is skipped when
+     * nothing in it or next to it changed in the previous generation.
+     * @param enabled true to skip quiet tiles, false to step every cell.
+     */
+    public void setActiveTileTracking(boolean enabled) {
+        tiles = enabled ? new ActiveTiles(field.getDepth(), field.getWidth(),
+            field.getBoundary() == Field.TOROIDAL) : null;
+    }
+
+    /**
+     * @return The tiles of the field that are being stepped, or null if
+     *         every cell is stepped.
+     */
+    public ActiveTiles getActiveTiles() {
+        return tiles;
+    }
+
+    /**
+     * Run the simulation forward by a number of generations. While only
+     * uninfected Mycoplasma is alive the field follows Conway's rules
+     * exactly, and HashLife is used to jump many generations at once;
+     * otherwise the generations are stepped one at a time.
+     *
+     * Whether HashLife might apply is read from the population counters
+     * and the epidemic, so the field is only scanned when it might. When
+     * the scan or the jump fails (a killed Mycoplasma lies dead, or the
+     * living cells are near the edge), HashLife is not tried again for a
+     * while, and for twice as long after each failure in a row.
+     * @param count The number of generations to run.
+     */
+    public void simGenerations(int count) {
+        while (count > 0) {
+            int done = 0;
+            if (hashLifeWait > 0) {
+                hashLifeWait--;
+            }
+            else if (mayBeConway()) {
+                if (HashLife.canSimulate(field)) {
+                    List<Cell> revivedCells = new ArrayList<>();
+                    done = hashLife.advance(field, count, revivedCells);
+                    replaceCells(revivedCells);
+                    generation += done;
+                    field.setGeneration(generation);
+                    if (tiles != null) {
+                        tiles.activateAll();
+                    }
+                    if (done > 0) {
+                        generationFinished();
+                    }
+                }
+                if (done > 0) {
+                    hashLifeBackoff = 1;
+                }
+                else {
+                    hashLifeWait = hashLifeBackoff;
+                    hashLifeBackoff = Math.min(2 * hashLifeBackoff, MAX_HASHLIFE_BACKOFF);
+                }
+            }
+            if (done == 0) {
+                simOneGeneration();
+                done = 1;
+            }
+            count -= done;
+        }
+    }
 
-        for (Cell cell : cells) {
-          cell.updateState();
+    /**
+     * @return true if only uninfected Mycoplasma is alive, so HashLife
+     *         may be able to run the field (see HashLife.canSimulate).
+     */
+    private boolean mayBeConway() {
+        return compactField == null && field.getEpidemic().getInfectedCount() == 0
+            && getLiveCount() == field.getPopulation(Species.MYCOPLASMA);
+    }
+
+    /**
+     * Move the simulation on by a number of generations without running
+     * them, for a field that repeats itself (see CycleDetector). The field
+     * is left as it is, which is what running the generations would give
+     * when count is a multiple of the field's period.
+     * @param count The number of generations to skip.
+     */
+    public void skipGenerations(int count) {
+        if (count <= 0) {
+            return;
         }
+        generation += count;
+        field.setGeneration(generation);
+        generationFinished();
     }
-    
+
+    /**
+     * Set the number of threads used to step the cells. The cells are
+     * stepped in the same order on any number of threads (see
+     * ParallelStepper), so the run does not depend on it.
+     * @param parallelism The number of threads to use.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        stepper.shutdown();
+        stepper = new ParallelStepper(this, parallelism);
+    }
+
+    /**
+     * Run this simulator as one shard of a larger field, exchanging its
+     * border rows with the shards above and below it every generation.
+     * The stepper's bands are then those of the whole field, and decide
+     * the order the cells act in.
+     * @param halo The exchange with the neighbouring shards.
+     */
+    void setHalo(Halo halo) {
+        this.halo = halo;
+    }
+
+    /**
+     * @return The exchange with the neighbouring shards, or null if this
+     *         simulator has the whole field.
+     */
+    Halo getHalo() {
+        return halo;
+    }
+
+    /**
+     * Put each revived cell in the list in place of the cell it replaced.
+     * @param revivedCells The new cells.
+     */
+    void replaceCells(List<Cell> revivedCells) {
+        for (Cell cell : revivedCells) {
+            Location location = cell.getLocation();
+            cells.set(location.getRow() * field.getWidth() + location.getCol(), cell);
+        }
+    }
+
     /**
      * Tries to revive a dead cell, does nothing if conditions are not satisfied
      * @param cell The cell being revived
      * @return The new cell produced
      */
     public Cell revive(Cell cell) {
-        List<Cell> neighbours = getField().getLivingNeighbours(cell.getLocation()); // gets a list of living neighbours, which includes all species
-        Cell newCell = null;
-        Cell tempCell = null;
-        
-        if(neighbours == null) {
+        return revive(cell, neighbours);
+    }
+
+    /**
+     * Tries to revive a dead cell, does nothing if conditions are not satisfied
+     * @param cell The cell being revived
+     * @param neighbours Space for the cell's living neighbours
+     * @return The new cell produced
+     */
+    Cell revive(Cell cell, Cell[] neighbours) {
+        if (field.isDeadBorder(cell.getLocation())) {
             return null;
         }
+        // gets the living neighbours, which includes all species
+        int count = getField().getLivingNeighbours(cell.getLocation(), neighbours);
+        SimulationEvents.Revive event = new SimulationEvents.Revive(); // a sample is recorded for Flight Recorder
+        boolean recorded = event.isEnabled() && count > 0 && SimulationEvents.isSampled(field, cell.getLocation());
+        if (recorded) {
+            event.begin();
+        }
         
-        // loops through neighbouring cells until the cell is revived
-        for (int i=0; i<neighbours.size() && newCell == null; i++) {
-            Cell neighbourCell = neighbours.get(i);
-            
-            // checks for neighbouring cell species
-            // checks if the reviving cell is this species
-            // if the previous statement is true, ensure that it was not killed
-            if (neighbourCell instanceof Mycoplasma &&
-                    !(cell instanceof Mycoplasma && cell.getKilled())) { 
-                tempCell = new Mycoplasma(field, cell.getLocation(), Color.ORANGE);
-            }
-            
-            else if (neighbourCell instanceof Phasophyta &&
-                    !(cell instanceof Phasophyta && cell.getKilled())) {
-                tempCell = new Phasophyta(field, cell.getLocation(), LIGHT_PURPLE);
-            }
+        // loops through neighbouring cells in random order until the cell is revived
+        for (int i=count-1; i>=0; i--) {
+            int pick = field.random(cell.getLocation(), Randomizer.REVIVE_ORDER + i, i + 1);
+            Species species = neighbours[pick].getSpecies();
+            neighbours[pick] = neighbours[i];
             
-            else if (neighbourCell instanceof Chromacystis &&
-                    !(cell instanceof Chromacystis && cell.getKilled())) {
-                tempCell = new Chromacystis(field, cell.getLocation(), Color.YELLOW);
+            // a cell that was killed cannot come back as its own species
+            boolean revived = !(cell.getSpecies() == species && cell.getKilled())
+                && species.canRevive(field, cell.getLocation());
+            if (Metrics.ENABLED) {
+                Metrics.countRevive(species.getId(), revived);
             }
-            
-            else if (neighbourCell instanceof Polycephalum &&
-                    !(cell instanceof Polycephalum && cell.getKilled())) {
-                tempCell = new Polycephalum(field, cell.getLocation(), DARK_CYAN);
-            }
-            
-            if(tempCell != null && tempCell.canRevive()) {
-                newCell = tempCell; 
+            if (revived) {
+                Cell newCell = species.create(field, cell.getLocation());
+                // the new cell only comes to life when the generation is committed
+                newCell.setNextState(false);
+                newCell.updateState();
+                if (recorded) {
+                    event.record(field, cell.getLocation(), count, count - i, species);
+                }
+                return newCell;
             }
-            else if(tempCell != null && !tempCell.canRevive()) {
-                tempCell.setNextState(false);
-                tempCell.updateState();
+        }
+        if (recorded) {
+            event.record(field, cell.getLocation(), count, count, null);
+        }
+        return null;
+    }
+
+    /**
+     * Ask to be told every time a generation has been run.
+     * @param listener The listener to add.
+     */
+    public void addGenerationListener(GenerationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about generations.
+     * @param listener The listener to remove.
+     */
+    public void removeGenerationListener(GenerationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Tell the listeners that a generation has been run.
+     */
+    private void generationFinished() {
+        Metrics.endGeneration();
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).generationFinished(this);
+        }
+    }
+
+    /**
+     * Put the simulation in the state recorded in a snapshot, so a run can
+     * carry on from a checkpoint exactly as it would have done.
+     * @param snapshot The state to restore. It must be of a field the same
+     *                 size as this one.
+     */
+    public void restore(Snapshot snapshot) {
+        if (compactField != null) {
+            throw new IllegalStateException("A CompactField cannot be restored from a snapshot");
+        }
+        if (snapshot.getDepth() != field.getDepth() || snapshot.getWidth() != field.getWidth()) {
+            throw new IllegalArgumentException("The snapshot is of a " + snapshot.getDepth() + "x"
+                + snapshot.getWidth() + " field");
+        }
+        seed = snapshot.getSeed();
+        generation = snapshot.getGeneration();
+        boundary = snapshot.getBoundary();
+        field.clear();
+        setFieldBoundary();
+        field.setSeed(seed);
+        field.setGeneration(generation);
+        cells.clear();
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                int index = row * field.getWidth() + col;
+                cells.add(Species.get(snapshot.getSpecies(index)).create(field, new Location(row, col)));
             }
         }
-        
-        return newCell;
+        // only once every cell is in place, as placing a cell resets what its neighbours remember of it
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).restore(snapshot, i);
+        }
+    }
+
+    /**
+     * Set the chance of each cell starting out alive. This takes effect
+     * the next time the simulation is reset.
+     * @param probability The chance of a cell being alive, from 0 to 1.
+     */
+    public void setAliveProbability(double probability) {
+        aliveProbability = probability;
+    }
+
+    /**
+     * Set the seed the simulation's random decisions are made from. This
+     * takes effect the next time the simulation is reset; from then on the
+     * run is the same every time, whatever the number of threads.
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return The seed the simulation's random decisions are made from.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Choose what lies beyond the edges of the field. This takes effect
+     * the next time the simulation is reset.
+     * @param boundary Field.CLIPPED, Field.TOROIDAL or Field.DEAD_BORDER.
+     */
+    public void setBoundary(int boundary) {
+        if (compactField != null && boundary != Field.CLIPPED) {
+            throw new IllegalArgumentException("A CompactField can only be clipped");
+        }
+        this.boundary = boundary;
     }
 
     /**
@@ -137,28 +435,57 @@ public class Simulator {
      */
     public void reset() {
         generation = 0;
+        hashLifeWait = 0;
+        hashLifeBackoff = 1;
+        setFieldBoundary();
         cells.clear();
         populate();
     }
 
+    /**
+     * Give the field the chosen boundary, and make every tile active.
+     */
+    private void setFieldBoundary() {
+        boolean changed = field.getBoundary() != boundary;
+        field.setBoundary(boundary);
+        if (tiles != null) {
+            if (changed) {
+                setActiveTileTracking(true); // the tiles at the edges need to know whether they wrap
+            }
+            tiles.activateAll();
+        }
+    }
+
     /**
      * Randomly populate the field live/dead life forms
      */
     private void populate() {
-      Random rand = Randomizer.getRandom();
       field.clear();
+      field.setSeed(seed);
+      field.setGeneration(0);
+      if (compactField != null) {
+          compactField.clear();
+          compactField.setSeed(seed);
+      }
       for (int row = 0; row < field.getDepth(); row++) {
         for (int col = 0; col < field.getWidth(); col++) {
           Location location = new Location(row, col);
           
-          Random random = new Random();
-          int chooseOrganism = random.nextInt(4);
+          int chooseOrganism = field.random(location, Randomizer.SPECIES, 4);
+          boolean infected = field.random(location, Randomizer.INFECTED) <= DISEASE_PROB;
+          boolean alive = field.random(location, Randomizer.ALIVE) <= aliveProbability
+              && !field.isDeadBorder(location);
+          if (compactField != null) {
+              compactField.place(row, col, chooseOrganism, alive, infected);
+              continue;
+          }
+          
           Cell cell = null; 
           if (chooseOrganism == 0) {
-              cell = new Mycoplasma(field, location, Color.rgb(255, 165, 0));
+              cell = new Mycoplasma(field, location, Colors.rgb(255, 165, 0));
             }
           else if (chooseOrganism == 1) {
-              cell = new Chromacystis(field, location, Color.rgb(50, 150, 255));
+              cell = new Chromacystis(field, location, Colors.rgb(50, 150, 255));
             }
           else if (chooseOrganism == 2) {
               cell = new Phasophyta(field, location, LIGHT_PURPLE);
@@ -167,11 +494,7 @@ public class Simulator {
               cell = new Polycephalum(field, location, DARK_CYAN);
           }
           
-          if(rand.nextDouble() <= DISEASE_PROB) {
-              cell.setInfected();
-          }
-          
-          if (rand.nextDouble() <= CELL_ALIVE_PROB) {
+          if (alive) {
             cells.add(cell);
           }
           else {
@@ -179,6 +502,10 @@ public class Simulator {
             cell.updateState();
             cells.add(cell);
           }
+          
+          if(infected) {
+              cell.setInfected();
+          }
         }
       }
     }
@@ -200,6 +527,50 @@ public class Simulator {
         return field;
     }
 
+    /**
+     * @return The compact field being simulated, or null if the
+     *         simulation uses Cell objects.
+     */
+    public CompactField getCompactField() {
+        return compactField;
+    }
+
+    /**
+     * Return the number of living cells of a species, whichever way the
+     * field is stored.
+     * @param species The species id.
+     * @return The number of living cells of that species.
+     */
+    public int getPopulation(int species) {
+        if (compactField != null) {
+            return species < Species.COUNT ? compactField.getPopulation(species) : 0;
+        }
+        return field.getPopulation(species);
+    }
+
+    /**
+     * Return a hash of which species is alive at each position, which
+     * only changes when the living cells do; see Field.getStateHash.
+     * @return The hash of the living cells.
+     */
+    public long getStateHash() {
+        if (compactField != null) {
+            throw new IllegalStateException("A CompactField does not keep a state hash");
+        }
+        return field.getStateHash();
+    }
+
+    /**
+     * @return The number of living cells of all species.
+     */
+    public int getLiveCount() {
+        int count = 0;
+        for (int species = 0; species < Species.getCount(); species++) {
+            count += getPopulation(species);
+        }
+        return count;
+    }
+
     public int getGeneration() {
         return generation;
     }
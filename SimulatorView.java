@@ -1,30 +1,46 @@
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.control.Label;
 import javafx.scene.Group; 
 import javafx.scene.layout.BorderPane; 
 import javafx.scene.layout.HBox; 
-import javafx.scene.paint.Color; 
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntUnaryOperator;
 
 /**
  * A graphical view of the simulation grid. The view displays a rectangle for
  * each location. Colors for each type of life form can be defined using the
  * setColor method.
  *
+ * Besides running the simulation, the view can record it (startRecording)
+ * and play a recorded run back (openReplay), forwards or backwards at any
+ * speed, jumping straight to any generation. The run to replay can also be
+ * given when launching, as --replay=file. The edges of the field can be
+ * chosen when launching too, as --boundary=clipped, toroidal or dead, and
+ * --metrics=n prints a report of where the time goes every n seconds (see
+ * Metrics); the JVM must be started with -Dlife.metrics=true for that.
+ *
  * @author David J. Barnes, Michael Kölling & Jeffery Raphael
  * @version 2024.02.03
  */
 
 public class SimulatorView extends Application {
 
-    public static final int GRID_WIDTH = 100;
-    public static final int GRID_HEIGHT = 80;    
+    public static final int GRID_WIDTH = Simulator.DEFAULT_WIDTH;
+    public static final int GRID_HEIGHT = Simulator.DEFAULT_DEPTH;    
     public static final int WIN_WIDTH = 580;
     public static final int WIN_HEIGHT = 680;  
     
-    private static final Color EMPTY_COLOR = Color.rgb(50, 50, 50);
+    private static final int EMPTY_COLOR = Colors.rgb(50, 50, 50);
+    
+    public static final double UNLIMITED = 0; // generation rate meaning "as fast as possible"
+    private static final double DEFAULT_GENERATION_RATE = 2; // generations per second
 
     private final String GENERATION_PREFIX = "Generation: ";
     private final String POPULATION_PREFIX = "Population: ";
@@ -34,6 +50,23 @@ public class SimulatorView extends Application {
     private FieldCanvas fieldCanvas;
     private FieldStats stats;
     private Simulator simulator;
+    private FrameBuffer frames; // pictures of the field handed from the simulation to the view
+    private AnimationTimer renderer;
+    private Thread runner; // runs the generations or plays a recorded run back, or null
+    private volatile boolean running;
+    private volatile double generationRate = DEFAULT_GENERATION_RATE;
+    private GenerationRecorder recorder; // recording the simulation, or null
+
+    private static final int KEYFRAME_INTERVAL = 100; // generations between keyframes when recording
+    private static final long REPLAY_INTERVAL = 10000000L; // nanoseconds between moves of a playing replay
+
+    // playing back a recorded run; guarded by this view's lock
+    private GenerationLog replay; // the run being shown instead of the simulation, or null
+    private FrameBuffer replayFrames; // pictures of the replay handed from the runner to the view
+    private double replayPosition; // the generation reached, with the fraction played since
+    private double replayRate; // generations per second, negative when playing backwards
+    private long lastReplayTime; // when the replay last moved on, in nanoseconds
+    private GenerationLog shownReplay; // the replay the canvas is scaled for; only used on the JavaFX thread
 
     /**
      * Create a view of the given width and height.
@@ -46,7 +79,20 @@ public class SimulatorView extends Application {
         stats = new FieldStats();
         fieldCanvas = new FieldCanvas(WIN_WIDTH - 50, WIN_HEIGHT - 150);
         fieldCanvas.setScale(GRID_HEIGHT, GRID_WIDTH); 
-        simulator = new Simulator();
+        String metricsInterval = getParameters().getNamed().get("metrics");
+        if (metricsInterval != null) {
+            Metrics.startReporting(System.out, Long.parseLong(metricsInterval));
+        }
+        String boundary = getParameters().getNamed().get("boundary");
+        simulator = new Simulator(GRID_HEIGHT, GRID_WIDTH, false,
+            boundary != null ? Field.parseBoundary(boundary) : Field.CLIPPED);
+        frames = new FrameBuffer(GRID_HEIGHT, GRID_WIDTH, EMPTY_COLOR);
+        frames.publish(simulator);
+        String rate = getParameters().getNamed().get("rate");
+        if (rate != null) {
+            setGenerationRate(rate.equals("unlimited") ? UNLIMITED : Double.parseDouble(rate));
+        }
+        String replayFile = getParameters().getNamed().get("replay");
 
         Group root = new Group();
         
@@ -81,11 +127,43 @@ public class SimulatorView extends Application {
         stage.setScene(scene);          
         stage.setTitle("Life Simulation");
         stage.setResizable(false);  // Make window non-resizable
-        updateCanvas(simulator.getGeneration(), simulator.getField());
+        
+        // draw the latest generation once per screen refresh
+        renderer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (showReplay()) {
+                    return;
+                }
+                FrameBuffer.Frame frame = frames.take();
+                if (frame != null) {
+                    long start = Metrics.start();
+                    updateCanvas(frame);
+                    Metrics.frameDrawn(start);
+                    frames.release(frame);
+                }
+            }
+        };
+        renderer.start();
+        if (replayFile != null) {
+            openReplay(replayFile);
+            play(generationRate == UNLIMITED ? DEFAULT_GENERATION_RATE : generationRate);
+        }
         
         stage.show();     
     }
 
+    /**
+     * Stop the simulation when the window is closed.
+     */
+    @Override
+    public void stop() {
+        stopRunning();
+        stopRecording();
+        renderer.stop();
+        simulator.setParallelism(1);
+    }
+
     /**
      * Display a short information label at the top of the window.
      */
@@ -94,30 +172,244 @@ public class SimulatorView extends Application {
     }
 
     /**
-     * Show the current status of the field.
-     * @param generation The current generation.
-     * @param field The field whose status is to be displayed.
+     * Show a picture of the field, repainting only the positions that
+     * changed since the last picture shown.
+     * @param frame The picture to show.
      */
-    public void updateCanvas(int generation, Field field) {
+    private void updateCanvas(FrameBuffer.Frame frame) {
+        updateCanvas(frame.getGeneration(), frame.getColors(), frame.getChanges(), frame::getPopulation);
+    }
+
+    /**
+     * Show a generation, repainting only the positions that changed.
+     * @param generation The generation shown.
+     * @param colors The colour of each position, row by row.
+     * @param changes The positions to repaint.
+     * @param populations The number of living cells of each species.
+     */
+    private void updateCanvas(int generation, int[] colors, ChangeMap changes, IntUnaryOperator populations) {
         genLabel.setText(GENERATION_PREFIX + generation);
-        stats.reset();
         
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Cell cell = field.getObjectAt(row, col);
+        changes.forEachRegion((top, left, height, width) -> {
+            fieldCanvas.drawRegion(colors, top, left, height, width);
+        });
         
-                if (cell != null && cell.isAlive()) {
-                    stats.incrementCount(cell.getClass());
-                    fieldCanvas.drawMark(col, row, cell.getColor());
+        StringBuilder details = new StringBuilder();
+        for (int species = 0; species < Species.getCount(); species++) {
+            details.append(Species.getName(species));
+            details.append(": ");
+            details.append(populations.applyAsInt(species));
+            details.append(' ');
+        }
+        population.setText(POPULATION_PREFIX + details);
+    }
+
+    /**
+     * Show the latest picture of a replay, if there is a new one.
+     * @return true if a replay is being shown.
+     */
+    private boolean showReplay() {
+        GenerationLog log;
+        FrameBuffer buffer;
+        synchronized (this) {
+            log = replay;
+            buffer = replayFrames;
+        }
+        if (log != shownReplay) {
+            if (log == null) {
+                fieldCanvas.setScale(GRID_HEIGHT, GRID_WIDTH);
+            }
+            else {
+                fieldCanvas.setScale(log.getDepth(), log.getWidth());
+            }
+            shownReplay = log;
+        }
+        if (log == null) {
+            return false;
+        }
+        FrameBuffer.Frame frame = buffer.take();
+        if (frame != null) {
+            updateCanvas(frame);
+            buffer.release(frame);
+        }
+        return true;
+    }
+
+    /**
+     * Show a recorded run instead of the simulation. It starts paused at
+     * its first generation; see play and seek.
+     * @param file The log the run was recorded to.
+     */
+    public void openReplay(String file) {
+        stopRunning();
+        GenerationLog log;
+        try {
+            log = GenerationLog.open(Paths.get(file), EMPTY_COLOR);
+        }
+        catch (IOException e) {
+            setInfoText("Cannot open " + file + ": " + e.getMessage());
+            return;
+        }
+        FrameBuffer buffer = new FrameBuffer(log.getDepth(), log.getWidth(), EMPTY_COLOR);
+        synchronized (this) {
+            replay = log;
+            replayFrames = buffer;
+            replayPosition = log.getFirstGeneration();
+            replayRate = 0;
+        }
+        setInfoText("Replaying " + file);
+        running = true;
+        runner = new Thread(() -> runReplay(log, buffer));
+        runner.setDaemon(true);
+        runner.start();
+    }
+
+    /**
+     * Play the recorded run.
+     * @param generationsPerSecond How fast to play it; negative to play it
+     *                             backwards, 0 to pause.
+     */
+    public synchronized void play(double generationsPerSecond) {
+        replayRate = generationsPerSecond;
+        lastReplayTime = System.nanoTime();
+        wakeRunner();
+    }
+
+    /**
+     * Pause the recorded run.
+     */
+    public void pause() {
+        play(0);
+    }
+
+    /**
+     * Jump to a generation of the recorded run. The jump is made by the
+     * thread playing the run back, not the caller.
+     * @param generation The generation to show.
+     */
+    public synchronized void seek(int generation) {
+        if (replay != null) {
+            replayPosition = Math.max(replay.getFirstGeneration(),
+                Math.min(replay.getLastGeneration(), generation));
+            wakeRunner();
+        }
+    }
+
+    /**
+     * Go back to showing the simulation.
+     */
+    public void closeReplay() {
+        synchronized (this) {
+            if (replay == null) {
+                return;
+            }
+            replay = null;
+            replayFrames = null;
+        }
+        setInfoText("  ");
+        stopRunning();
+        simulator.getField().getChanges().markAll();
+        frames.publish(simulator);
+    }
+
+    /**
+     * Move a recorded run on at the chosen rate, reading the generation it
+     * reaches and handing a picture of it to the view, until stopped. The
+     * log is closed at the end.
+     */
+    private void runReplay(GenerationLog log, FrameBuffer buffer) {
+        int sought = Integer.MIN_VALUE; // the generation last sought
+        boolean shown = true; // whether the view has been handed the generation sought
+        try {
+            while (running) {
+                int target;
+                boolean playing;
+                synchronized (this) {
+                    if (replayRate != 0) {
+                        long now = System.nanoTime();
+                        replayPosition += replayRate * (now - lastReplayTime) / 1e9;
+                        lastReplayTime = now;
+                        if (replayPosition <= log.getFirstGeneration() || replayPosition >= log.getLastGeneration()) {
+                            replayPosition = Math.max(log.getFirstGeneration(),
+                                Math.min(log.getLastGeneration(), replayPosition));
+                            replayRate = 0; // stop at either end
+                        }
+                    }
+                    target = (int) replayPosition;
+                    playing = replayRate != 0;
+                }
+                if (target != sought) {
+                    log.seek(target);
+                    sought = target;
+                    shown = false;
+                }
+                if (!shown) {
+                    shown = buffer.publish(log);
+                }
+                if (playing || !shown) {
+                    LockSupport.parkNanos(REPLAY_INTERVAL);
                 }
                 else {
-                    fieldCanvas.drawMark(col, row, EMPTY_COLOR);
+                    LockSupport.park(); // until play, seek or stopRunning
                 }
             }
         }
-        
-        stats.countFinished();
-        population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
+        catch (UncheckedIOException e) {
+            Platform.runLater(() -> setInfoText("Replay failed: " + e.getCause().getMessage()));
+        }
+        finally {
+            try {
+                log.close();
+            }
+            catch (IOException e) {
+                // nothing more is read from it
+            }
+        }
+    }
+
+    /**
+     * Wake the thread playing a recorded run back, if it is waiting. Only
+     * call this while holding the view's lock.
+     */
+    private void wakeRunner() {
+        Thread thread = runner;
+        if (replay != null && thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Record the simulation from its current generation, so it can be
+     * replayed later. Recording stops when the simulation is reset.
+     * @param file The log to record to.
+     */
+    public void startRecording(String file) {
+        stopRunning();
+        stopRecording();
+        try {
+            recorder = new GenerationRecorder(simulator, Paths.get(file), KEYFRAME_INTERVAL);
+            simulator.addGenerationListener(recorder);
+        }
+        catch (IOException e) {
+            setInfoText("Cannot record to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop recording the simulation.
+     */
+    public void stopRecording() {
+        stopRunning();
+        if (recorder != null) {
+            simulator.removeGenerationListener(recorder);
+            try {
+                recorder.close();
+            }
+            catch (IOException e) {
+                setInfoText("Recording failed: " + e.getMessage());
+            }
+            recorder = null;
+        }
     }
 
     /**
@@ -125,9 +417,20 @@ public class SimulatorView extends Application {
      * @return true If there is more than one species alive.
      */
     public boolean isViable(Field field) {
+        stats.reset();
         return stats.isViable(field);
     }
 
+    /**
+     * Set how fast the simulation runs. The view keeps drawing at the rate
+     * of the screen; generations that come faster than that are not drawn.
+     * @param generationsPerSecond The number of generations to run each
+     *                             second, or UNLIMITED.
+     */
+    public void setGenerationRate(double generationsPerSecond) {
+        generationRate = generationsPerSecond;
+    }
+
     /**
      * Run the simulation from its current state for the given number of
      * generations.  Stop before the given number of generations if the
@@ -135,36 +438,78 @@ public class SimulatorView extends Application {
      * @param numGenerations The number of generations to run for.
      */
     public void simulate(int numGenerations)  {
-        new Thread(() -> {
-           
-            for (int gen = 1; gen <= numGenerations; gen++) {
-                simulator.simOneGeneration();    
-                simulator.delay(500);
-                Platform.runLater(() -> {
-                    updateCanvas(simulator.getGeneration(), simulator.getField());
-                });
-            }
-            
-        }).start();
+        closeReplay();
+        stopRunning();
+        running = true;
+        runner = new Thread(() -> runGenerations(numGenerations));
+        runner.setDaemon(true);
+        runner.start();
     }
     
     public void simulateOne()  {
-        new Thread(() -> {
-            simulator.simOneGeneration();    
-            simulator.delay(500);
-            Platform.runLater(() -> {
-            updateCanvas(simulator.getGeneration(), simulator.getField());
-            });
-        }).start();
+        simulate(1);
+    }
+
+    /**
+     * Run generations at the chosen rate, handing a picture of the field to
+     * the view after each one that it has room for.
+     */
+    private void runGenerations(int numGenerations) {
+        long next = System.nanoTime();
+        boolean shown = true; // whether the view has been handed the latest generation
+        for (int gen = 1; gen <= numGenerations && running; gen++) {
+            simulator.simOneGeneration();
+            shown = frames.publish(simulator);
+            if (!isViable(simulator.getField())) {
+                break;
+            }
+            
+            double rate = generationRate;
+            if (rate > 0) {
+                next += (long) (1e9 / rate);
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                else if (wait < -1000000000L) {
+                    next = System.nanoTime(); // too far behind to catch up
+                }
+            }
+        }
+        // keep publishing until the view has the last generation
+        while (running && !shown) {
+            shown = frames.publish(simulator);
+            if (!shown) {
+                LockSupport.parkNanos(1000000);
+            }
+        }
+    }
+
+    /**
+     * Stop the generations being run, and wait for the current one to finish.
+     */
+    private void stopRunning() {
+        running = false;
+        if (runner != null) {
+            LockSupport.unpark(runner);
+            try {
+                runner.join();
+            }
+            catch (InterruptedException ie) {
+                // give up waiting
+            }
+            runner = null;
+        }
     }
-    
 
     /**
      * Reset the simulation to a starting position.
      */
     public void reset() {
+        closeReplay();
+        stopRecording();
         simulator.reset();
-        updateCanvas(simulator.getGeneration(), simulator.getField());
+        frames.publish(simulator);
     }
     
     public static void main(String args[]){           
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The complete state of a simulation at the end of a generation, held as
+ * one small array per attribute so it can be copied out of the cells
+ * quickly and written to disk in a compact binary form. Restoring a
+ * snapshot (see Simulator.restore) carries on the run exactly as it would
+ * have gone: every random decision follows from the seed and the
+ * generation number, which are saved with the cells.
+ *
+ * A snapshot file holds a header (magic number, format version, field size,
+ * number of species, seed, generation and boundary mode) followed by each
+ * attribute of every position in row * width + col order. Numbers are
+ * big-endian. Version 1 files, written before there were boundary modes,
+ * have no boundary mode and are read as clipped.
+ */
+
+public class Snapshot {
+    public static final int MAGIC = 0x4c494645; // "LIFE"
+    public static final int VERSION = 2;
+
+    // bits of the flags array
+    static final int ALIVE = 1;
+    static final int INFECTED = 2;
+    static final int CAN_SPREAD = 4;
+    static final int KILLED = 8;
+    static final int REPRODUCE = 16; // Phasophyta is mature enough to reproduce
+    static final int FEEDING = 32; // Phasophyta had a Chromacystis neighbour
+
+    private static final int HEADER_BYTES = 36;
+    private static final int VERSION_1_HEADER_BYTES = 32;
+    private static final int BYTES_PER_POSITION = 13;
+    private static final int CHUNK_BYTES = 1 << 16; // bytes written to the channel at a time
+
+    private int depth, width;
+    private long seed;
+    private int generation;
+    private int boundary;
+    private byte[] species = new byte[0];
+    private byte[] flags = new byte[0];
+    private byte[] infectedDuration = new byte[0];
+    private short[] contact = new short[0]; // Phasophyta contact counters
+    private int[] age = new int[0]; // Phasophyta age
+    private int[] color = new int[0];
+
+    /**
+     * Copy the state of a simulator into this snapshot. The arrays are
+     * reused when the field is the same size as last time.
+     * @param simulator The simulator, between generations.
+     */
+    public void capture(Simulator simulator) {
+        if (simulator.getCompactField() != null) {
+            throw new IllegalStateException("Snapshots of a CompactField are not supported");
+        }
+        Field field = simulator.getField();
+        resize(field.getDepth(), field.getWidth());
+        seed = field.getSeed();
+        generation = simulator.getGeneration();
+        boundary = field.getBoundary();
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                field.getObjectAt(row, col).save(this, row * width + col);
+            }
+        }
+    }
+
+    /**
+     * Write the snapshot to a file. It is written to a temporary file first
+     * and then moved into place, so the file is never left half written.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(depth).putInt(width)
+                .putInt(Species.getCount()).putLong(seed).putInt(generation).putInt(boundary);
+            buffer.flip();
+            writeFully(channel, buffer);
+            writeBytes(channel, buffer, species);
+            writeBytes(channel, buffer, flags);
+            writeBytes(channel, buffer, infectedDuration);
+            for (int start = 0; start < contact.length; start += CHUNK_BYTES / 2) {
+                int length = Math.min(CHUNK_BYTES / 2, contact.length - start);
+                buffer.clear();
+                buffer.asShortBuffer().put(contact, start, length);
+                buffer.limit(length * 2);
+                writeFully(channel, buffer);
+            }
+            writeInts(channel, buffer, age);
+            writeInts(channel, buffer, color);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot from a file, by mapping the file into memory. The
+     * header and the species of every position are checked, so a damaged
+     * file fails here rather than when it is restored.
+     * @param file The file to read.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read, is not a snapshot or
+     *                     is corrupt.
+     */
+    public static Snapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < VERSION_1_HEADER_BYTES || map.getInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int version = map.getInt();
+            if (version != VERSION && version != 1) {
+                throw new IOException(file + " has snapshot version " + version + ", expected " + VERSION);
+            }
+            Snapshot snapshot = new Snapshot();
+            int depth = map.getInt();
+            int width = map.getInt();
+            int speciesCount = map.getInt();
+            if (speciesCount > Species.getCount()) {
+                throw new IOException(file + " uses " + speciesCount + " species, only "
+                    + Species.getCount() + " are registered");
+            }
+            snapshot.seed = map.getLong();
+            snapshot.generation = map.getInt();
+            int headerBytes = VERSION_1_HEADER_BYTES;
+            if (version > 1) {
+                headerBytes = HEADER_BYTES;
+                snapshot.boundary = map.getInt();
+            }
+            if (depth <= 0 || width <= 0 || (long) depth * width > Integer.MAX_VALUE
+                    || snapshot.boundary < Field.CLIPPED || snapshot.boundary > Field.DEAD_BORDER) {
+                throw new IOException(file + " is corrupt");
+            }
+            if (channel.size() != headerBytes + (long) depth * width * BYTES_PER_POSITION) {
+                throw new IOException(file + " is truncated");
+            }
+            snapshot.resize(depth, width);
+            int size = snapshot.species.length;
+
+            map.get(snapshot.species);
+            for (byte id : snapshot.species) {
+                if (id < 0 || id >= speciesCount) {
+                    throw new IOException(file + " is corrupt");
+                }
+            }
+            map.get(snapshot.flags);
+            map.get(snapshot.infectedDuration);
+            map.asShortBuffer().get(snapshot.contact);
+            map.position(map.position() + size * 2);
+            map.asIntBuffer().get(snapshot.age);
+            map.position(map.position() + size * 4);
+            map.asIntBuffer().get(snapshot.color);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Make the arrays fit a field of the given size.
+     */
+    private void resize(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        int size = depth * width;
+        if (species.length != size) {
+            species = new byte[size];
+            flags = new byte[size];
+            infectedDuration = new byte[size];
+            contact = new short[size];
+            age = new int[size];
+            color = new int[size];
+        }
+    }
+
+    private static void writeBytes(FileChannel channel, ByteBuffer buffer, byte[] values) throws IOException {
+        for (int start = 0; start < values.length; start += CHUNK_BYTES) {
+            int length = Math.min(CHUNK_BYTES, values.length - start);
+            buffer.clear();
+            buffer.put(values, start, length);
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int start = 0; start < values.length; start += CHUNK_BYTES / 4) {
+            int length = Math.min(CHUNK_BYTES / 4, values.length - start);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, start, length);
+            buffer.limit(length * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Record the state every cell has.
+     */
+    void setCell(int index, int speciesId, int cellFlags, int duration, int cellColor) {
+        species[index] = (byte) speciesId;
+        flags[index] = (byte) cellFlags;
+        infectedDuration[index] = (byte) duration;
+        color[index] = cellColor;
+        contact[index] = 0;
+        age[index] = 0;
+    }
+
+    /**
+     * Record the extra state of a Phasophyta, after setCell.
+     */
+    void setPhasophyta(int index, int phasophytaAge, int phasophytaContact, boolean reproduce, boolean feeding) {
+        age[index] = phasophytaAge;
+        contact[index] = (short) phasophytaContact;
+        flags[index] |= (reproduce ? REPRODUCE : 0) | (feeding ? FEEDING : 0);
+    }
+
+    /**
+     * @return true if the given flag is set for a position.
+     */
+    boolean hasFlag(int index, int flag) {
+        return (flags[index] & flag) != 0;
+    }
+
+    int getInfectedDuration(int index) {
+        return infectedDuration[index];
+    }
+
+    int getColor(int index) {
+        return color[index];
+    }
+
+    int getAge(int index) {
+        return age[index];
+    }
+
+    int getContact(int index) {
+        return contact[index] & 0xffff;
+    }
+
+    /**
+     * @param index A position, as row * width + col.
+     * @return The species id of the cell at that position.
+     */
+    public int getSpecies(int index) {
+        return species[index];
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The seed of the run.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return The generation the snapshot was taken after.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The boundary mode of the field, see Field.
+     */
+    public int getBoundary() {
+        return boundary;
+    }
+}
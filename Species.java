@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A kind of cell, identified by a small integer id. Each species is a
+ * stateless strategy holding the rules that do not depend on the state of
+ * a particular cell: how a dead position comes back to life as the species,
+ * and, for species whose fate depends only on how many living neighbours of
+ * their own kind they have, a survival table indexed by that number.
+ *
+ * Species register themselves here, which gives them their id. The four
+ * built-in species always have the ids below; engines that store cells as
+ * primitive data (rather than as Cell objects) use these ids in place of
+ * the cell's class. A new species can be added by registering it, without
+ * changing the simulator.
+ */
+
+public abstract class Species {
+    public static final int MYCOPLASMA = 0;
+    public static final int CHROMACYSTIS = 1;
+    public static final int PHASOPHYTA = 2;
+    public static final int POLYCEPHALUM = 3;
+
+    public static final int COUNT = 4; // number of built-in species
+
+    private static final List<Species> registry = new ArrayList<>();
+
+    static {
+        register(new Mycoplasma.Rules());
+        register(new Chromacystis.Rules());
+        register(new Phasophyta.Rules());
+        register(new Polycephalum.Rules());
+    }
+
+    private final String name;
+    private final boolean[] survival; // survival by number of living neighbours of this species, or null
+    private final boolean[] revival; // revival by number of living neighbours of this species, or null
+    private int id = -1;
+
+    /**
+     * Create a species.
+     * @param name The name of the species.
+     * @param survival Whether a living cell survives, indexed by its number of
+     *                 living neighbours of the same species; null if survival
+     *                 depends on more than that.
+     * @param revival Whether a dead position comes to life as this species,
+     *                indexed in the same way; null if the species overrides
+     *                canRevive.
+     */
+    protected Species(String name, boolean[] survival, boolean[] revival) {
+        this.name = name;
+        this.survival = survival;
+        this.revival = revival;
+    }
+
+    /**
+     * Add a species to the registry, giving it the next free id.
+     * @param species The species to add.
+     * @return The species' id.
+     */
+    public static synchronized int register(Species species) {
+        species.id = registry.size();
+        registry.add(species);
+        return species.id;
+    }
+
+    /**
+     * @param id A species id.
+     * @return The species with that id.
+     */
+    public static Species get(int id) {
+        return registry.get(id);
+    }
+
+    /**
+     * @return The number of registered species.
+     */
+    public static int getCount() {
+        return registry.size();
+    }
+
+    /**
+     * Return the id of the species a cell belongs to.
+     * @param cell The cell to identify.
+     * @return The species id.
+     */
+    public static int of(Cell cell) {
+        return cell.getSpecies().getId();
+    }
+
+    /**
+     * @param species A species id.
+     * @return The name of the species.
+     */
+    public static String getName(int species) {
+        return get(species).getName();
+    }
+
+    /**
+     * @return This species' id.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The name of this species.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Create a cell of this species that has just come to life at a position,
+     * replacing whatever was there.
+     * @param field The field.
+     * @param location The position of the new cell.
+     * @return The new cell.
+     */
+    public abstract Cell create(Field field, Location location);
+
+    /**
+     * Check whether a living cell of this species survives, for species
+     * that have a survival table.
+     * @param neighbours The number of uninfected living neighbours of this species.
+     * @return true if the cell survives.
+     */
+    public boolean survives(int neighbours) {
+        return survival[neighbours];
+    }
+
+    /**
+     * Check whether a dead position could come to life as this species.
+     * By default this looks up the number of uninfected living neighbours
+     * of this species in the revival table.
+     * @param field The field.
+     * @param location The dead position.
+     * @return true if a cell of this species can come to life there.
+     */
+    public boolean canRevive(Field field, Location location) {
+        return revival[field.countLivingNeighbours(location, this)];
+    }
+
+    /**
+     * Build a table indexed by a number of neighbours (0 to 8) that is true
+     * for the given numbers.
+     * @param counts The numbers of neighbours for which the table is true.
+     * @return The table.
+     */
+    protected static boolean[] table(int... counts) {
+        boolean[] table = new boolean[Field.NEIGHBOURHOOD_SIZE + 1];
+        for (int count : counts) {
+            table[count] = true;
+        }
+        return table;
+    }
+}